@@ -0,0 +1,10 @@
+package okreplay;
+
+/**
+ * A stream for writing a tape that only keeps what was written once it is closed. Aborting it
+ * instead leaves the tape as it was, so a writer failing part-way never leaves a partial tape.
+ */
+interface Abortable {
+  /** Closes the stream, discarding what was written. Does nothing if it is already closed. */
+  void abort();
+}
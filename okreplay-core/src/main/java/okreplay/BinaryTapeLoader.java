@@ -0,0 +1,395 @@
+package okreplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Loads and writes tapes in a compact, length-prefixed binary format that is much cheaper to
+ * parse than YAML. The layout of a tape file is:
+ *
+ * <pre>
+ * magic "OKRT", int version
+ * string tape name
+ * int header name count, string header name...
+ * int interaction count, interaction...
+ * long offset of each interaction..., long offset of the offset table
+ * </pre>
+ *
+ * Strings are an int byte count followed by UTF-8 bytes. Header names are interned in the table
+ * at the start of the file and referenced by index. Bodies are stored as a type byte followed by
+ * the raw bytes, so binary bodies need no base64 round-trip. Interactions are appended in place,
+ * and an append that was cut off before it updated the count may leave more entries in the offset
+ * table than the count, which readers ignore.
+ */
+class BinaryTapeLoader implements TapeLoader<YamlTape> {
+  static final String EXTENSION = ".tape";
+  static final int MAGIC = 0x4f4b5254; // "OKRT"
+  static final int VERSION = 1;
+  static final byte BODY_NONE = 0;
+  static final byte BODY_TEXT = 1;
+  static final byte BODY_BINARY = 2;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final StreamTapeRoot tapeRoot;
+
+  BinaryTapeLoader(TapeRoot tapeRoot) {
+    if (!(tapeRoot instanceof StreamTapeRoot)) {
+      throw new IllegalArgumentException("Binary tapes require a StreamTapeRoot");
+    }
+    this.tapeRoot = (StreamTapeRoot) tapeRoot;
+  }
+
+  @Override public YamlTape loadTape(String tapeName) {
+    String fileName = normalize(tapeName);
+    if (tapeRoot.tapeExists(fileName)) {
+      BufferedSource source = Okio.buffer(Okio.source(tapeRoot.inputStreamFor(fileName)));
+      YamlTape tape = readFrom(source);
+      tape.markPersisted();
+      return tape;
+    } else {
+      YamlTape tape = new YamlTape();
+      tape.setName(tapeName);
+      return tape;
+    }
+  }
+
+  @Override public void writeTape(Tape tape) {
+    String fileName = normalize(tape.getName());
+    if (tape.isDirty()) {
+      try {
+        if (!append((MemoryTape) tape, fileName)) {
+          write((MemoryTape) tape, fileName);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      ((MemoryTape) tape).markPersisted();
+    }
+  }
+
+  /**
+   * Appends the interactions recorded since the tape was loaded or written to its file in place.
+   * The new interactions and a new offset table are written over the old table, and the count in
+   * the header is only updated afterwards, so until then readers still see the interactions that
+   * were there before. If writing fails, the old table is put back.
+   *
+   * @return `false` if the file has to be rewritten as a whole instead, e.g. because a persisted
+   * interaction was overwritten or a new header name would have to be added to the table.
+   */
+  private boolean append(MemoryTape tape, String fileName) throws IOException {
+    List<YamlRecordedInteraction> appended = tape.unpersistedInteractions();
+    // Only plain tape files, e.g. not compressed or archived ones or tapes read from elsewhere than
+    // they are written to, can be updated in place.
+    File tapeFile = TapeCache.cacheableFile(tapeRoot, fileName);
+    if (appended == null || tapeFile == null || !tapeFile.isFile()) {
+      return false;
+    }
+    RandomAccessFile file = new RandomAccessFile(tapeFile, "rw");
+    try {
+      return append(appended, tape.size(), file);
+    } finally {
+      file.close();
+    }
+  }
+
+  private boolean append(List<YamlRecordedInteraction> appended, int tapeSize,
+      RandomAccessFile file) throws IOException {
+    if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+      return false;
+    }
+    file.skipBytes(file.readInt());
+    Map<String, Integer> headerNames = new LinkedHashMap<>();
+    for (int i = 0, size = file.readInt(); i < size; i++) {
+      byte[] name = new byte[file.readInt()];
+      file.readFully(name);
+      headerNames.put(new String(name, UTF_8), i);
+    }
+    for (YamlRecordedInteraction interaction : appended) {
+      if (!headerNames.keySet().containsAll(interaction.request().headers().keySet())
+          || !headerNames.keySet().containsAll(interaction.response().headers().keySet())) {
+        return false;
+      }
+    }
+    long countOffset = file.getFilePointer();
+    int count = file.readInt();
+    if (count + appended.size() != tapeSize) {
+      return false;
+    }
+    long tableOffset = tableOffset(file, count);
+    if (tableOffset < 0) {
+      return false;
+    }
+    byte[] table = new byte[count * 8];
+    file.seek(tableOffset);
+    file.readFully(table);
+    // A table with more entries than the count is left by an append that failed before the count
+    // was updated, and the interactions the count doesn't include end where the next one starts.
+    long end = tableOffset;
+    if (file.length() - 8 - tableOffset > table.length) {
+      end = file.readLong();
+      if (end < countOffset + 4 || end > tableOffset) {
+        return false;
+      }
+    }
+
+    Buffer buffer = new Buffer();
+    long[] offsets = new long[appended.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = end + buffer.size();
+      writeInteraction(buffer, appended.get(i), headerNames);
+    }
+    long newTableOffset = end + buffer.size();
+    buffer.write(table);
+    for (long offset : offsets) {
+      buffer.writeLong(offset);
+    }
+    buffer.writeLong(newTableOffset);
+    try {
+      file.seek(end);
+      file.write(buffer.readByteArray());
+      file.setLength(file.getFilePointer());
+    } catch (IOException e) {
+      restoreTable(file, end, table);
+      throw e;
+    }
+    file.seek(countOffset);
+    file.writeInt(count + appended.size());
+    return true;
+  }
+
+  /**
+   * @return the offset of the table at the end of {@code file}, or -1 if the trailer doesn't point
+   * to a table of at least {@code count} entries, e.g. because the file was cut off.
+   */
+  private static long tableOffset(RandomAccessFile file, int count) throws IOException {
+    long length = file.length();
+    if (length < 8) {
+      return -1;
+    }
+    file.seek(length - 8);
+    long tableOffset = file.readLong();
+    long tableLength = length - 8 - tableOffset;
+    return tableOffset > 0 && tableLength >= count * 8L && tableLength % 8 == 0 ? tableOffset : -1;
+  }
+
+  /** Writes the offset table that was overwritten by a failed append back at {@code offset}. */
+  private static void restoreTable(RandomAccessFile file, long offset, byte[] table) {
+    try {
+      file.seek(offset);
+      file.write(table);
+      file.writeLong(offset);
+      file.setLength(file.getFilePointer());
+    } catch (IOException ignored) {
+    }
+  }
+
+  @Override public String normalize(String tapeName) {
+    return FilenameNormalizer.toFilename(tapeName) + EXTENSION;
+  }
+
+  YamlTape readFrom(BufferedSource source) {
+    try {
+      if (source.readInt() != MAGIC) {
+        throw new TapeLoadException("Invalid tape: not a binary tape");
+      }
+      int version = source.readInt();
+      if (version != VERSION) {
+        throw new TapeLoadException("Invalid tape: unsupported version " + version);
+      }
+      YamlTape tape = new YamlTape();
+      tape.setName(readString(source));
+      String[] headerNames = readHeaderNames(source);
+      int count = source.readInt();
+      List<YamlRecordedInteraction> interactions = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        interactions.add(readInteraction(source, headerNames));
+      }
+      // The trailing offset table is only needed for random access, so it's not read here.
+      tape.setInteractions(interactions);
+      return tape;
+    } catch (IOException e) {
+      throw new TapeLoadException("Invalid tape", e);
+    } finally {
+      closeQuietly(source);
+    }
+  }
+
+  /**
+   * Writes {@code tape} to {@code fileName} as a whole. The file is only replaced once the
+   * tape was written completely; if writing fails for any reason, e.g. because an external body
+   * can't be read, the stream is aborted and the file is left as it was.
+   */
+  void write(MemoryTape tape, String fileName) throws IOException {
+    OutputStream out = tapeRoot.outputStreamFor(fileName);
+    boolean written = false;
+    try {
+      BufferedSink sink = Okio.buffer(Okio.sink(out));
+      writeTo(tape, sink);
+      sink.flush();
+      out.close();
+      written = true;
+    } finally {
+      if (!written) {
+        Util.abort(out);
+      }
+    }
+  }
+
+  /** Writes {@code tape} to {@code sink}, leaving it to the caller to flush and close it. */
+  void writeTo(MemoryTape tape, BufferedSink sink) throws IOException {
+    List<YamlRecordedInteraction> interactions = tape.getInteractions();
+    Map<String, Integer> headerNames = new LinkedHashMap<>();
+    for (YamlRecordedInteraction interaction : interactions) {
+      internHeaderNames(interaction.request(), headerNames);
+      internHeaderNames(interaction.response(), headerNames);
+    }
+
+    Buffer buffer = new Buffer();
+    buffer.writeInt(MAGIC);
+    buffer.writeInt(VERSION);
+    writeString(buffer, tape.getName());
+    buffer.writeInt(headerNames.size());
+    for (String name : headerNames.keySet()) {
+      writeString(buffer, name);
+    }
+    buffer.writeInt(interactions.size());
+    long offset = buffer.size();
+    sink.writeAll(buffer);
+
+    long[] offsets = new long[interactions.size()];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = offset;
+      writeInteraction(buffer, interactions.get(i), headerNames);
+      offset += buffer.size();
+      sink.writeAll(buffer);
+    }
+    for (long interactionOffset : offsets) {
+      sink.writeLong(interactionOffset);
+    }
+    sink.writeLong(offset);
+  }
+
+  static String[] readHeaderNames(BufferedSource source) throws IOException {
+    String[] headerNames = new String[source.readInt()];
+    for (int i = 0; i < headerNames.length; i++) {
+      headerNames[i] = readString(source);
+    }
+    return headerNames;
+  }
+
+  static YamlRecordedInteraction readInteraction(BufferedSource source, String[] headerNames)
+      throws IOException {
+    Date recorded = new Date(source.readLong());
+    String method = readString(source);
+    URI uri = URI.create(readString(source));
+    Map<String, String> requestHeaders = readHeaders(source, headerNames);
+    Object requestBody = readBody(source);
+    int status = source.readInt();
+    Map<String, String> responseHeaders = readHeaders(source, headerNames);
+    Object responseBody = readBody(source);
+    return new YamlRecordedInteraction(recorded,
+        new YamlRecordedRequest(requestHeaders, requestBody, method, uri),
+        new YamlRecordedResponse(responseHeaders, responseBody, status));
+  }
+
+  private static void writeInteraction(Buffer buffer, YamlRecordedInteraction interaction,
+      Map<String, Integer> headerNames) {
+    YamlRecordedRequest request = interaction.request();
+    YamlRecordedResponse response = interaction.response();
+    Date recorded = interaction.recorded();
+    buffer.writeLong(recorded != null ? recorded.getTime() : 0L);
+    writeString(buffer, request.method());
+    writeString(buffer, request.uri().toString());
+    writeHeaders(buffer, request.headers(), headerNames);
+    writeBody(buffer, request.body());
+    buffer.writeInt(response.code());
+    writeHeaders(buffer, response.headers(), headerNames);
+    writeBody(buffer, response.body());
+  }
+
+  private static void internHeaderNames(YamlRecordedMessage message,
+      Map<String, Integer> headerNames) {
+    for (String name : message.headers().keySet()) {
+      if (!headerNames.containsKey(name)) {
+        headerNames.put(name, headerNames.size());
+      }
+    }
+  }
+
+  private static Map<String, String> readHeaders(BufferedSource source, String[] headerNames)
+      throws IOException {
+    int count = source.readInt();
+    Map<String, String> headers = new LinkedHashMap<>(count);
+    for (int i = 0; i < count; i++) {
+      headers.put(headerNames[source.readInt()], readString(source));
+    }
+    return headers;
+  }
+
+  private static void writeHeaders(Buffer buffer, Map<String, String> headers,
+      Map<String, Integer> headerNames) {
+    buffer.writeInt(headers.size());
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      buffer.writeInt(headerNames.get(header.getKey()));
+      writeString(buffer, header.getValue());
+    }
+  }
+
+  private static Object readBody(BufferedSource source) throws IOException {
+    byte type = source.readByte();
+    switch (type) {
+      case BODY_NONE:
+        return null;
+      case BODY_TEXT:
+        return readString(source);
+      case BODY_BINARY:
+        return source.readByteArray(source.readInt());
+      default:
+        throw new TapeLoadException("Invalid tape: unknown body type " + type);
+    }
+  }
+
+  private static void writeBody(Buffer buffer, Object body) {
+    if (body == null) {
+      buffer.writeByte(BODY_NONE);
+    } else if (body instanceof String) {
+      buffer.writeByte(BODY_TEXT);
+      writeString(buffer, (String) body);
+    } else {
+      byte[] bytes = body instanceof ExternalBody ? ((ExternalBody) body).bytes() : (byte[]) body;
+      buffer.writeByte(BODY_BINARY);
+      buffer.writeInt(bytes.length);
+      buffer.write(bytes);
+    }
+  }
+
+  static String readString(BufferedSource source) throws IOException {
+    return new String(source.readByteArray(source.readInt()), UTF_8);
+  }
+
+  private static void writeString(Buffer buffer, String value) {
+    byte[] bytes = value.getBytes(UTF_8);
+    buffer.writeInt(bytes.length);
+    buffer.write(bytes);
+  }
+
+  private static void closeQuietly(BufferedSource source) {
+    try {
+      source.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
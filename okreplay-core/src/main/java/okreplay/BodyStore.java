@@ -0,0 +1,120 @@
+package okreplay;
+
+import org.yaml.snakeyaml.nodes.Tag;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import okhttp3.MediaType;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Keeps large response bodies out of YAML tapes. Each body is written once to the {@code bodies}
+ * directory of the tape root, named by the SHA-256 hash of its content, so a payload recorded by
+ * many tests is only stored once. Tapes refer to it with a {@code !body <hash>:<length>} scalar
+ * that is resolved to a {@link StoredBody}, which is only read when the body is played back.
+ */
+class BodyStore {
+  static final String DIRECTORY = "bodies/";
+  static final Tag TAG = new Tag("!body");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final StreamTapeRoot tapeRoot;
+
+  BodyStore(StreamTapeRoot tapeRoot) {
+    this.tapeRoot = tapeRoot;
+  }
+
+  /** Writes {@code body} to the store unless a body with the same content is already in it. */
+  StoredBody put(byte[] body) {
+    String hash = ByteString.of(body).sha256().hex();
+    String path = DIRECTORY + hash;
+    if (!tapeRoot.tapeExists(path)) {
+      OutputStream out = tapeRoot.outputStreamFor(path);
+      boolean written = false;
+      try {
+        try {
+          out.write(body);
+          out.close();
+          written = true;
+        } finally {
+          if (!written) {
+            Util.abort(out);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return new StoredBody(hash, body.length);
+  }
+
+  /**
+   * @return a {@link StoredBody} for {@code body} if it is larger than {@code threshold} bytes,
+   * otherwise {@code body} itself. Text is stored encoded the way it is served when it is played
+   * back inline.
+   */
+  Object maybeStore(Object body, String contentType, int threshold) {
+    byte[] bytes;
+    if (body instanceof String) {
+      bytes = ((String) body).getBytes(MediaType.parse(contentType).charset(UTF_8));
+    } else if (body instanceof byte[]) {
+      bytes = (byte[]) body;
+    } else {
+      return body;
+    }
+    return bytes.length > threshold ? put(bytes) : body;
+  }
+
+  /** Resolves a reference previously returned by {@link StoredBody#reference()}. */
+  StoredBody get(String reference) {
+    int separator = reference.indexOf(':');
+    // The hash becomes a file name, so anything else could reach outside of the store.
+    if (separator != 64 || !isHash(reference, separator)) {
+      throw new TapeLoadException("Invalid tape: " + reference + " is not a body reference");
+    }
+    try {
+      return new StoredBody(reference.substring(0, separator),
+          Long.parseLong(reference.substring(separator + 1)));
+    } catch (NumberFormatException e) {
+      throw new TapeLoadException("Invalid tape: " + reference + " is not a body reference", e);
+    }
+  }
+
+  /** @return whether the first {@code length} characters are lowercase hex digits. */
+  private static boolean isHash(String reference, int length) {
+    for (int i = 0; i < length; i++) {
+      char c = reference.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** A body in the store. */
+  final class StoredBody extends ExternalBody {
+    private final String hash;
+    private final long size;
+
+    private StoredBody(String hash, long size) {
+      this.hash = hash;
+      this.size = size;
+    }
+
+    @Override long size() {
+      return size;
+    }
+
+    @Override Source source() {
+      return Okio.source(tapeRoot.inputStreamFor(DIRECTORY + hash));
+    }
+
+    /** @return the value written to tapes in place of the body. */
+    String reference() {
+      return hash + ":" + size;
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package okreplay;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reduces a JSON document to a canonical form: insignificant whitespace is removed, object
+ * members are sorted by name, numbers are written in a normalized form so that e.g. {@code 1.0}
+ * and {@code 1} are equal, and members at the ignored paths are left out.
+ * <p>
+ * A path names object members by their dot separated names from the root, with array elements
+ * named by their index. A {@code *} segment matches any member name or index, e.g.
+ * {@code items.*.nonce}.
+ */
+final class CanonicalJson {
+  /** Deeper documents are rejected rather than risking a stack overflow. */
+  static final int MAX_DEPTH = 256;
+  private final String json;
+  private final List<String[]> ignoredPaths;
+  private final List<String> path = new ArrayList<>();
+  private int pos;
+
+  private CanonicalJson(String json, List<String[]> ignoredPaths) {
+    this.json = json;
+    this.ignoredPaths = ignoredPaths;
+  }
+
+  /**
+   * @return the canonical form of {@code json}.
+   * @throws IllegalArgumentException if {@code json} is not a JSON document, or nests objects and
+   * arrays deeper than {@link #MAX_DEPTH}.
+   */
+  static String canonicalize(String json, List<String[]> ignoredPaths) {
+    CanonicalJson parser = new CanonicalJson(json, ignoredPaths);
+    StringBuilder out = new StringBuilder(json.length());
+    parser.value(out);
+    parser.skipWhitespace();
+    if (parser.pos != json.length()) {
+      throw parser.syntaxError();
+    }
+    return out.toString();
+  }
+
+  private void value(StringBuilder out) {
+    skipWhitespace();
+    if (pos == json.length()) {
+      throw syntaxError();
+    }
+    char c = json.charAt(pos);
+    if (c == '{') {
+      object(out);
+    } else if (c == '[') {
+      array(out);
+    } else if (c == '"') {
+      quote(string(), out);
+    } else if (c == '-' || (c >= '0' && c <= '9')) {
+      number(out);
+    } else if (!literal("true", out) && !literal("false", out) && !literal("null", out)) {
+      throw syntaxError();
+    }
+  }
+
+  private void object(StringBuilder out) {
+    checkDepth();
+    pos++;
+    Map<String, String> members = new TreeMap<>();
+    skipWhitespace();
+    if (!consume('}')) {
+      do {
+        skipWhitespace();
+        if (pos == json.length() || json.charAt(pos) != '"') {
+          throw syntaxError();
+        }
+        String name = string();
+        skipWhitespace();
+        expect(':');
+        path.add(name);
+        StringBuilder member = new StringBuilder();
+        value(member);
+        if (!isIgnored()) {
+          members.put(name, member.toString());
+        }
+        path.remove(path.size() - 1);
+        skipWhitespace();
+      } while (consume(','));
+      expect('}');
+    }
+    out.append('{');
+    boolean first = true;
+    for (Map.Entry<String, String> member : members.entrySet()) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      quote(member.getKey(), out);
+      out.append(':').append(member.getValue());
+    }
+    out.append('}');
+  }
+
+  private void array(StringBuilder out) {
+    checkDepth();
+    pos++;
+    out.append('[');
+    skipWhitespace();
+    if (!consume(']')) {
+      int index = 0;
+      boolean first = true;
+      do {
+        path.add(String.valueOf(index));
+        StringBuilder element = new StringBuilder();
+        value(element);
+        if (!isIgnored()) {
+          if (!first) {
+            out.append(',');
+          }
+          first = false;
+          out.append(element);
+        }
+        path.remove(path.size() - 1);
+        index++;
+        skipWhitespace();
+      } while (consume(','));
+      expect(']');
+    }
+    out.append(']');
+  }
+
+  /** Reads a string and returns its unescaped value. */
+  private String string() {
+    pos++;
+    StringBuilder value = new StringBuilder();
+    while (true) {
+      if (pos == json.length()) {
+        throw syntaxError();
+      }
+      char c = json.charAt(pos++);
+      if (c == '"') {
+        return value.toString();
+      } else if (c == '\\') {
+        if (pos == json.length()) {
+          throw syntaxError();
+        }
+        char escaped = json.charAt(pos++);
+        switch (escaped) {
+          case '"':
+          case '\\':
+          case '/':
+            value.append(escaped);
+            break;
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'u':
+            if (pos + 4 > json.length()) {
+              throw syntaxError();
+            }
+            try {
+              value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw syntaxError();
+            }
+            pos += 4;
+            break;
+          default:
+            throw syntaxError();
+        }
+      } else if (c < 0x20) {
+        throw syntaxError();
+      } else {
+        value.append(c);
+      }
+    }
+  }
+
+  /** Reads a number, which has no leading zeros and digits on both sides of a decimal point. */
+  private void number(StringBuilder out) {
+    int start = pos;
+    consume('-');
+    if (!consume('0')) {
+      digits();
+    }
+    if (consume('.')) {
+      digits();
+    }
+    if (consume('e') || consume('E')) {
+      if (!consume('+')) {
+        consume('-');
+      }
+      digits();
+    }
+    try {
+      BigDecimal number = new BigDecimal(json.substring(start, pos));
+      out.append(number.signum() == 0 ? "0" : number.stripTrailingZeros().toString());
+    } catch (NumberFormatException | ArithmeticException e) {
+      // The exponent is out of range, e.g. 1e-2147483648 overflows the scale when normalized.
+      throw syntaxError();
+    }
+  }
+
+  /** Reads one or more digits. */
+  private void digits() {
+    int start = pos;
+    while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9') {
+      pos++;
+    }
+    if (pos == start) {
+      throw syntaxError();
+    }
+  }
+
+  private boolean literal(String literal, StringBuilder out) {
+    if (json.startsWith(literal, pos)) {
+      pos += literal.length();
+      out.append(literal);
+      return true;
+    }
+    return false;
+  }
+
+  private boolean isIgnored() {
+    for (String[] ignored : ignoredPaths) {
+      if (ignored.length == path.size()) {
+        boolean matches = true;
+        for (int i = 0; i < ignored.length && matches; i++) {
+          matches = ignored[i].equals("*") || ignored[i].equals(path.get(i));
+        }
+        if (matches) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void quote(String value, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c < 0x20) {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  private void skipWhitespace() {
+    while (pos < json.length()) {
+      char c = json.charAt(pos);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        return;
+      }
+      pos++;
+    }
+  }
+
+  private boolean consume(char c) {
+    if (pos < json.length() && json.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  /** The path holds a segment for each enclosing object or array. */
+  private void checkDepth() {
+    if (path.size() >= MAX_DEPTH) {
+      throw syntaxError();
+    }
+  }
+
+  private void expect(char c) {
+    if (!consume(c)) {
+      throw syntaxError();
+    }
+  }
+
+  private IllegalArgumentException syntaxError() {
+    return new IllegalArgumentException("Invalid JSON at offset " + pos);
+  }
+}
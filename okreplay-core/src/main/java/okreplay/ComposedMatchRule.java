@@ -2,12 +2,16 @@ package okreplay;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
-import static okreplay.Util.all;
-
-public class ComposedMatchRule implements MatchRule {
+/**
+ * Matches requests that all the contained rules match. The rules are evaluated cheapest first
+ * according to their {@link CostedMatchRule#cost()}, in the order they were given for equal
+ * costs, so that a mismatch is usually found by the cheapest rule.
+ */
+public class ComposedMatchRule implements KeyedMatchRule, CostedMatchRule {
   public static MatchRule of(MatchRule... rules) {
     return new ComposedMatchRule(new LinkedHashSet<>(Arrays.asList(rules)));
   }
@@ -16,18 +20,66 @@ public class ComposedMatchRule implements MatchRule {
     return new ComposedMatchRule(new LinkedHashSet<>(rules));
   }
 
+  private static final Comparator<MatchRule> BY_COST = new Comparator<MatchRule>() {
+    @Override public int compare(MatchRule a, MatchRule b) {
+      int aCost = costOf(a);
+      int bCost = costOf(b);
+      return aCost < bCost ? -1 : (aCost == bCost ? 0 : 1);
+    }
+  };
+
   private final Set<MatchRule> rules;
+  /** The rules in the order they are evaluated. */
+  private final MatchRule[] compiled;
+  private final int cost;
 
   private ComposedMatchRule(Set<MatchRule> rules) {
     this.rules = rules;
+    this.compiled = rules.toArray(new MatchRule[rules.size()]);
+    // Sorting objects is stable, so rules of equal cost keep their order.
+    Arrays.sort(compiled, BY_COST);
+    int cost = 0;
+    for (MatchRule rule : compiled) {
+      cost += costOf(rule);
+    }
+    this.cost = cost;
   }
 
-  @Override public boolean isMatch(final Request a, final Request b) {
-    return all(rules.iterator(), new Predicate<MatchRule>() {
-      @Override public boolean apply(MatchRule rule) {
-        return rule.isMatch(a, b);
+  private static int costOf(MatchRule rule) {
+    return rule instanceof CostedMatchRule
+        ? ((CostedMatchRule) rule).cost() : CostedMatchRule.DEFAULT_COST;
+  }
+
+  @Override public boolean isMatch(Request a, Request b) {
+    for (MatchRule rule : compiled) {
+      if (!rule.isMatch(a, b)) {
+        return false;
       }
-    });
+    }
+    return true;
+  }
+
+  /** The cost of evaluating all the contained rules. */
+  @Override public int cost() {
+    return cost;
+  }
+
+  /**
+   * Combines the keys of the contained {@link KeyedMatchRule}s. Rules without a key are ignored
+   * since the combined key only needs to be equal for matching requests.
+   */
+  @Override public String key(Request request) {
+    StringBuilder builder = null;
+    for (MatchRule rule : rules) {
+      String key = rule instanceof KeyedMatchRule ? ((KeyedMatchRule) rule).key(request) : null;
+      if (key != null) {
+        if (builder == null) {
+          builder = new StringBuilder();
+        }
+        builder.append(key.length()).append(':').append(key);
+      }
+    }
+    return builder == null ? null : builder.toString();
   }
 
   @Override public int hashCode() {
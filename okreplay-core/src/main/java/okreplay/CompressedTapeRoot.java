@@ -0,0 +1,320 @@
+package okreplay;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Stores tapes compressed in another {@link StreamTapeRoot}. By default tapes are written with
+ * gzip, e.g. {@code my_tape.yaml} is stored as {@code my_tape.yaml.gz}. If a preset dictionary is
+ * given, tapes are written as raw deflate streams using it instead, with a {@code .deflate}
+ * extension. A dictionary of content common to the tapes, like typical headers and payload
+ * fragments, makes the many small tapes of a test suite compress considerably better.
+ * <p>
+ * Tapes are read in whichever form exists, so uncompressed tapes keep working and are compressed
+ * the next time they are written. Once written, the tape files in other forms are deleted if the
+ * tapes are stored in a {@link DefaultTapeRoot}. For example:
+ * <p>
+ * [source,java]
+ * ----
+ * OkReplayConfig configuration = new OkReplayConfig.Builder()
+ * .tapeRoot(new CompressedTapeRoot(new DefaultTapeRoot(tapeRoot)))
+ * .build();
+ * ----
+ */
+public class CompressedTapeRoot implements StreamTapeRoot {
+  public static final String GZIP_EXTENSION = ".gz";
+  public static final String DEFLATE_EXTENSION = ".deflate";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final StreamTapeRoot delegate;
+  private final byte[] dictionary;
+
+  /** Compresses tapes with gzip. */
+  public CompressedTapeRoot(StreamTapeRoot delegate) {
+    this.delegate = delegate;
+    this.dictionary = null;
+  }
+
+  /** Compresses tapes with deflate, using {@code dictionary} as the preset dictionary. */
+  public CompressedTapeRoot(StreamTapeRoot delegate, byte[] dictionary) {
+    this.delegate = delegate;
+    this.dictionary = dictionary.clone();
+  }
+
+  @Override public Reader readerFor(String tapeFileName) {
+    return new BufferedReader(new InputStreamReader(inputStreamFor(tapeFileName), UTF_8));
+  }
+
+  @Override public Writer writerFor(String tapePath) {
+    return Util.newWriter(outputStreamFor(tapePath), UTF_8);
+  }
+
+  @Override public InputStream inputStreamFor(String tapeFileName) {
+    try {
+      if (dictionary != null && delegate.tapeExists(tapeFileName + DEFLATE_EXTENSION)) {
+        return new InflatingInputStream(
+            delegate.inputStreamFor(tapeFileName + DEFLATE_EXTENSION), dictionary);
+      } else if (delegate.tapeExists(tapeFileName + GZIP_EXTENSION)) {
+        return new GZIPInputStream(delegate.inputStreamFor(tapeFileName + GZIP_EXTENSION));
+      } else {
+        return delegate.inputStreamFor(tapeFileName);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override public OutputStream outputStreamFor(String tapePath) {
+    return compressing(delegate.outputStreamFor(tapePath + extension()), tapePath);
+  }
+
+  /**
+   * Appends a new gzip member or deflate stream to the tape, both of which are read as a
+   * continuation of the ones before. A tape in another form is compressed first.
+   */
+  @Override public OutputStream appendingStreamFor(String tapePath) {
+    if (delegate.tapeExists(tapePath + extension())) {
+      return compressing(delegate.appendingStreamFor(tapePath + extension()), tapePath);
+    }
+    // Open the existing tape before the compressed one is created, which would be read instead.
+    InputStream in = inputStreamFor(tapePath);
+    OutputStream out = outputStreamFor(tapePath);
+    try {
+      try {
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+          out.write(buffer, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException | RuntimeException e) {
+      Util.abort(out);
+      throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+    return out;
+  }
+
+  @Override public boolean tapeExists(String tapeFileName) {
+    return delegate.tapeExists(tapeFileName + extension())
+        || delegate.tapeExists(tapeFileName + GZIP_EXTENSION)
+        || delegate.tapeExists(tapeFileName);
+  }
+
+  @Override public File get() {
+    return delegate.get();
+  }
+
+  /** Returns the root the compressed tapes are stored in. */
+  StreamTapeRoot delegate() {
+    return delegate;
+  }
+
+  /** Deletes the files of {@code tapePath} in the forms that are no longer written. */
+  private void deleteStaleForms(String tapePath) {
+    if (!(delegate instanceof DefaultTapeRoot)) {
+      return;
+    }
+    //noinspection ResultOfMethodCallIgnored
+    new File(delegate.get(), tapePath).delete();
+    if (dictionary != null) {
+      //noinspection ResultOfMethodCallIgnored
+      new File(delegate.get(), tapePath + GZIP_EXTENSION).delete();
+    }
+  }
+
+  private String extension() {
+    return dictionary != null ? DEFLATE_EXTENSION : GZIP_EXTENSION;
+  }
+
+  private OutputStream compressing(OutputStream stored, String tapePath) {
+    try {
+      return new StaleFormsDeletingOutputStream(compress(stored), stored, tapePath);
+    } catch (RuntimeException e) {
+      Util.abort(stored);
+      throw e;
+    }
+  }
+
+  private OutputStream compress(OutputStream out) {
+    try {
+      if (dictionary == null) {
+        return new GZIPOutputStream(out);
+      }
+      final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      deflater.setDictionary(dictionary);
+      return new DeflaterOutputStream(out, deflater) {
+        @Override public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            deflater.end();
+          }
+        }
+      };
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Compresses what is written to {@code stored}, and deletes the other forms of the tape once it
+   * has been written completely. Nothing is deleted if writing failed or was aborted, as the new
+   * form may not have been kept.
+   */
+  private final class StaleFormsDeletingOutputStream extends FilterOutputStream
+      implements Abortable {
+    private final OutputStream stored;
+    private final String tapePath;
+    private boolean failed;
+    private boolean closed;
+
+    StaleFormsDeletingOutputStream(OutputStream out, OutputStream stored, String tapePath) {
+      super(out);
+      this.stored = stored;
+      this.tapePath = tapePath;
+    }
+
+    @Override public void write(int b) throws IOException {
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        out.close();
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+      if (!failed && delegate.tapeExists(tapePath + extension())) {
+        deleteStaleForms(tapePath);
+      }
+    }
+
+    /** Discards the stored form first, so finishing the compressed stream can't complete it. */
+    @Override public void abort() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      failed = true;
+      Util.abort(stored);
+      try {
+        out.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /**
+   * Reads consecutive raw deflate streams compressed with a preset dictionary, which
+   * {@link java.util.zip.InflaterInputStream} can't do.
+   */
+  private static final class InflatingInputStream extends InputStream {
+    private final InputStream in;
+    private final byte[] dictionary;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] buffer = new byte[8192];
+    private int buffered;
+    /** Whether the current stream has been given any input, so the input may not end yet. */
+    private boolean started;
+
+    InflatingInputStream(InputStream in, byte[] dictionary) {
+      this.in = in;
+      this.dictionary = dictionary;
+      inflater.setDictionary(dictionary);
+    }
+
+    @Override public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (true) {
+        if (inflater.finished()) {
+          // Continue with the next stream, which may already be partly buffered.
+          int remaining = inflater.getRemaining();
+          inflater.reset();
+          inflater.setDictionary(dictionary);
+          started = remaining > 0;
+          if (started) {
+            inflater.setInput(buffer, buffered - remaining, remaining);
+          }
+        }
+        if (inflater.needsInput()) {
+          buffered = in.read(buffer);
+          if (buffered == -1) {
+            if (started) {
+              throw new EOFException("Unexpected end of deflate stream");
+            }
+            return -1;
+          }
+          inflater.setInput(buffer, 0, buffered);
+          started = true;
+        }
+        try {
+          int inflated = inflater.inflate(b, off, len);
+          if (inflated > 0) {
+            return inflated;
+          }
+        } catch (DataFormatException e) {
+          throw new ZipException(e.getMessage());
+        }
+      }
+    }
+
+    @Override public void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package okreplay;
+
+/**
+ * A {@link MatchRule} that declares how expensive it is to evaluate. A {@link ComposedMatchRule}
+ * evaluates its cheapest rules first, so that most mismatching recordings are rejected without
+ * evaluating the expensive ones. Rules that don't declare a cost are assumed to cost
+ * {@link #DEFAULT_COST}, as much as comparing request bodies.
+ */
+public interface CostedMatchRule extends MatchRule {
+  int DEFAULT_COST = 100;
+
+  /** @return the relative cost of evaluating this rule, compared to the {@link MatchRules}. */
+  int cost();
+}
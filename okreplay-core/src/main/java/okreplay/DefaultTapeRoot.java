@@ -1,7 +1,17 @@
 package okreplay;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
@@ -9,8 +19,19 @@ import java.nio.charset.Charset;
 import static okreplay.Util.newReader;
 import static okreplay.Util.newWriter;
 
-public class DefaultTapeRoot implements TapeRoot {
+/**
+ * Stores tapes as files in a directory. New tapes are written next to the existing file and
+ * renamed over it once complete, so a tape is never left half-written by a failed write. Appending
+ * writes to the end of the existing file instead, so it only costs the appended bytes, and cuts
+ * the file back to its previous length if the write fails. The previous length is also kept in a
+ * file next to the tape until the append is complete, so if the process dies while appending, the
+ * tape is cut back the next time it is used. The streams are {@link Abortable}, so writers that
+ * fail for reasons other than I/O can discard what they wrote the same way.
+ */
+public class DefaultTapeRoot implements StreamTapeRoot {
   private static final String FILE_CHARSET = "UTF-8";
+  /** Suffix of the file that keeps the length of a tape file while it is appended to. */
+  private static final String APPEND_SUFFIX = ".append";
   protected final File root;
 
   public DefaultTapeRoot(File root) {
@@ -18,7 +39,7 @@ public class DefaultTapeRoot implements TapeRoot {
   }
 
   @Override public Reader readerFor(String tapeFileName) {
-    File file = new File(root, tapeFileName);
+    File file = recovered(new File(root, tapeFileName));
     try {
       return newReader(file, Charset.forName(FILE_CHARSET));
     } catch (FileNotFoundException e) {
@@ -27,12 +48,34 @@ public class DefaultTapeRoot implements TapeRoot {
   }
 
   @Override public Writer writerFor(String tapePath) {
-    File file = new File(root, tapePath);
+    return newWriter(outputStreamFor(tapePath), Charset.forName(FILE_CHARSET));
+  }
+
+  @Override public InputStream inputStreamFor(String tapeFileName) {
+    File file = recovered(new File(root, tapeFileName));
+    try {
+      return new FileInputStream(file);
+    } catch (FileNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override public OutputStream outputStreamFor(String tapePath) {
+    File file = recovered(new File(root, tapePath));
     //noinspection ResultOfMethodCallIgnored
     file.getParentFile().mkdirs();
     try {
-      return newWriter(file, Charset.forName(FILE_CHARSET));
-    } catch (FileNotFoundException e) {
+      return new ReplacingOutputStream(file);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override public OutputStream appendingStreamFor(String tapePath) {
+    File file = recovered(new File(root, tapePath));
+    try {
+      return new AppendingOutputStream(file);
+    } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
@@ -44,4 +87,200 @@ public class DefaultTapeRoot implements TapeRoot {
   @Override public File get() {
     return root;
   }
+
+  /**
+   * Cuts {@code file} back to the length it had before an append that didn't complete, which left
+   * its length behind.
+   *
+   * @return {@code file}.
+   */
+  private static File recovered(File file) {
+    File lengthFile = lengthFileFor(file);
+    if (!lengthFile.exists()) {
+      return file;
+    }
+    if (file.isFile()) {
+      cutBack(file, lengthFile);
+    }
+    //noinspection ResultOfMethodCallIgnored
+    lengthFile.delete();
+    return file;
+  }
+
+  private static void cutBack(File file, File lengthFile) {
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(lengthFile));
+      try {
+        setLength(file, in.readLong());
+      } catch (EOFException ignored) {
+        // The length wasn't written completely, so appending hadn't started.
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static File lengthFileFor(File file) {
+    return new File(file.getParentFile(), file.getName() + APPEND_SUFFIX);
+  }
+
+  private static void setLength(File file, long length) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      if (randomAccessFile.length() > length) {
+        randomAccessFile.setLength(length);
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /** Keeps track of whether writing failed or was aborted, which decides what happens on close. */
+  private abstract static class TapeOutputStream extends FilterOutputStream implements Abortable {
+    private boolean failed;
+    private boolean closed;
+
+    TapeOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override public void write(int b) throws IOException {
+      try {
+        out.write(b);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      try {
+        out.write(b, off, len);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override public void flush() throws IOException {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        out.close();
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      } finally {
+        if (failed) {
+          discard();
+        }
+      }
+      if (!failed) {
+        commit();
+      }
+    }
+
+    @Override public void abort() {
+      failed = true;
+      try {
+        close();
+      } catch (IOException ignored) {
+      }
+    }
+
+    /** Makes what was written part of the tape once the stream was closed. */
+    abstract void commit() throws IOException;
+
+    /** Leaves the tape as it was before anything was written. */
+    abstract void discard();
+  }
+
+  /**
+   * Writes to a temporary file that replaces {@code file} when closed. If writing fails the
+   * temporary file is deleted instead and {@code file} is left as it was.
+   */
+  private static final class ReplacingOutputStream extends TapeOutputStream {
+    private final File file;
+    private final File temp;
+
+    ReplacingOutputStream(File file) throws IOException {
+      this(file, File.createTempFile(file.getName(), ".tmp", file.getParentFile()));
+    }
+
+    private ReplacingOutputStream(File file, File temp) throws FileNotFoundException {
+      super(new FileOutputStream(temp));
+      this.file = file;
+      this.temp = temp;
+    }
+
+    @Override void commit() throws IOException {
+      if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+        //noinspection ResultOfMethodCallIgnored
+        temp.delete();
+        throw new IOException("Failed to replace " + file);
+      }
+    }
+
+    @Override void discard() {
+      //noinspection ResultOfMethodCallIgnored
+      temp.delete();
+    }
+  }
+
+  /**
+   * Writes to the end of {@code file}. If writing fails the file is cut back to the length it had
+   * before, so callers that write what they append at once never leave part of it behind. That
+   * length is kept in a file until the append is complete, which {@link #recovered} cuts the tape
+   * back to if the process died before.
+   */
+  private static final class AppendingOutputStream extends TapeOutputStream {
+    private final File file;
+    private final long length;
+
+    AppendingOutputStream(File file) throws IOException {
+      super(appendTo(file));
+      this.file = file;
+      this.length = file.length();
+    }
+
+    /** Keeps the length of {@code file} before opening it for appending. */
+    private static FileOutputStream appendTo(File file) throws IOException {
+      DataOutputStream out = new DataOutputStream(new FileOutputStream(lengthFileFor(file)));
+      try {
+        out.writeLong(file.length());
+      } finally {
+        out.close();
+      }
+      return new FileOutputStream(file, true);
+    }
+
+    @Override void commit() {
+      //noinspection ResultOfMethodCallIgnored
+      lengthFileFor(file).delete();
+    }
+
+    @Override void discard() {
+      try {
+        setLength(file, length);
+      } catch (IOException ignored) {
+        // The length file is kept, so the tape is cut back the next time it is used.
+        return;
+      }
+      //noinspection ResultOfMethodCallIgnored
+      lengthFileFor(file).delete();
+    }
+  }
 }
@@ -0,0 +1,37 @@
+package okreplay;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A recorded message body that is not held on the heap, e.g. a region of a memory-mapped tape.
+ * The content is only read when the body is played back.
+ */
+abstract class ExternalBody {
+  /** @return the length of the body in bytes. */
+  abstract long size();
+
+  /** @return a new source reading the body from the start. */
+  abstract Source source() throws IOException;
+
+  /** Reads the whole body into memory. */
+  byte[] bytes() {
+    BufferedSource source = null;
+    try {
+      source = Okio.buffer(source());
+      return source.readByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to read recorded body", e);
+    } finally {
+      if (source != null) {
+        try {
+          source.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+  }
+}
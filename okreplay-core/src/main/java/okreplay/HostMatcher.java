@@ -0,0 +1,253 @@
+package okreplay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Matches hosts against a list of patterns, which are compiled once so that matching a host
+ * doesn't need more than a hash lookup per label and never involves DNS. Patterns can be
+ * <ul>
+ * <li>exact host names or addresses, e.g. {@code api.example.com} or {@code 127.0.0.1},</li>
+ * <li>wildcards for all subdomains of a domain, e.g. {@code *.example.com}, which doesn't match
+ * {@code example.com} itself, or</li>
+ * <li>address ranges in CIDR notation, e.g. {@code 10.0.0.0/8} or {@code fd00::/8}, which match
+ * hosts given as an address in the range.</li>
+ * </ul>
+ */
+final class HostMatcher {
+  private final Set<String> hosts = new HashSet<>();
+  /** Wildcard domains by their labels in reverse order, e.g. {@code com -> example}. */
+  private final Label wildcards = new Label();
+  private final List<Range> ranges = new ArrayList<>();
+
+  HostMatcher(Collection<String> patterns) {
+    for (String pattern : patterns) {
+      pattern = pattern.trim().toLowerCase(Locale.US);
+      if (pattern.startsWith("*.")) {
+        addWildcard(pattern.substring(2));
+      } else if (pattern.indexOf('/') != -1) {
+        ranges.add(Range.parse(pattern));
+      } else if (!pattern.isEmpty()) {
+        hosts.add(pattern);
+      }
+    }
+  }
+
+  boolean matches(String host) {
+    host = host.toLowerCase(Locale.US);
+    if (hosts.contains(host)) {
+      return true;
+    }
+    if (wildcards.children != null && matchesWildcard(host)) {
+      return true;
+    }
+    if (!ranges.isEmpty()) {
+      byte[] address = parseAddress(host);
+      if (address != null) {
+        for (Range range : ranges) {
+          if (range.contains(address)) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private void addWildcard(String domain) {
+    Label label = wildcards;
+    String[] labels = domain.split("\\.");
+    for (int i = labels.length - 1; i >= 0; i--) {
+      label = label.child(labels[i]);
+    }
+    label.isWildcard = true;
+  }
+
+  private boolean matchesWildcard(String host) {
+    Label label = wildcards;
+    int end = host.length();
+    while (end > 0) {
+      int start = host.lastIndexOf('.', end - 1);
+      label = label.children == null ? null : label.children.get(host.substring(start + 1, end));
+      if (label == null) {
+        return false;
+      }
+      // Only a subdomain matches, so there needs to be at least one label left.
+      if (label.isWildcard && start > 0) {
+        return true;
+      }
+      end = start;
+    }
+    return false;
+  }
+
+  /**
+   * @return the bytes of {@code host} if it is an IPv4 or IPv6 address, or {@code null} if it is
+   * a name or not a valid address. Addresses are parsed here, as the resolver would look up
+   * anything it can't parse.
+   */
+  static byte[] parseAddress(String host) {
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);
+    }
+    if (host.indexOf(':') != -1) {
+      return parseIpv6(host);
+    }
+    byte[] address = new byte[4];
+    return parseIpv4(host, address, 0) ? address : null;
+  }
+
+  /** Parses four decimal octets of 0 to 255 into {@code address} at {@code offset}. */
+  private static boolean parseIpv4(String host, byte[] address, int offset) {
+    int octets = 0;
+    int value = 0;
+    int digits = 0;
+    for (int i = 0, length = host.length(); i <= length; i++) {
+      char c = i < length ? host.charAt(i) : '.';
+      if (c == '.') {
+        if (digits == 0 || octets == 4) {
+          return false;
+        }
+        address[offset + octets++] = (byte) value;
+        value = 0;
+        digits = 0;
+      } else if (c >= '0' && c <= '9' && digits < 3) {
+        value = value * 10 + c - '0';
+        digits++;
+        if (value > 255) {
+          return false;
+        }
+      } else {
+        return false;
+      }
+    }
+    return octets == 4;
+  }
+
+  /**
+   * Parses groups of up to four hex digits, where {@code ::} stands for one or more groups of
+   * zeros and the last two groups may be given as an IPv4 address.
+   */
+  private static byte[] parseIpv6(String host) {
+    byte[] address = new byte[16];
+    int length = host.length();
+    int b = 0;
+    int compressed = -1;
+    int i = 0;
+    if (host.startsWith("::")) {
+      compressed = 0;
+      i = 2;
+    } else if (host.startsWith(":")) {
+      return null;
+    }
+    while (i < length) {
+      if (b == address.length) {
+        return null;
+      }
+      int start = i;
+      int value = 0;
+      for (int digit; i < length && i - start < 4
+          && (digit = Character.digit(host.charAt(i), 16)) != -1; i++) {
+        value = (value << 4) | digit;
+      }
+      if (i == start) {
+        return null;
+      }
+      if (i < length && host.charAt(i) == '.') {
+        if (b > address.length - 4 || !parseIpv4(host.substring(start), address, b)) {
+          return null;
+        }
+        b += 4;
+        break;
+      }
+      address[b++] = (byte) (value >> 8);
+      address[b++] = (byte) value;
+      if (i == length) {
+        break;
+      }
+      if (host.charAt(i++) != ':' || i == length) {
+        return null;
+      }
+      if (host.charAt(i) == ':') {
+        if (compressed != -1) {
+          return null;
+        }
+        compressed = b;
+        i++;
+      }
+    }
+    if (compressed == -1) {
+      return b == address.length ? address : null;
+    }
+    if (b == address.length) {
+      return null;
+    }
+    int tail = b - compressed;
+    System.arraycopy(address, compressed, address, address.length - tail, tail);
+    Arrays.fill(address, compressed, address.length - tail, (byte) 0);
+    return address;
+  }
+
+  private static final class Label {
+    Map<String, Label> children;
+    boolean isWildcard;
+
+    Label child(String name) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      Label child = children.get(name);
+      if (child == null) {
+        child = new Label();
+        children.put(name, child);
+      }
+      return child;
+    }
+  }
+
+  private static final class Range {
+    final byte[] network;
+    final int prefixLength;
+
+    Range(byte[] network, int prefixLength) {
+      this.network = network;
+      this.prefixLength = prefixLength;
+    }
+
+    static Range parse(String cidr) {
+      int slash = cidr.indexOf('/');
+      byte[] network = parseAddress(cidr.substring(0, slash));
+      int prefixLength;
+      try {
+        prefixLength = Integer.parseInt(cidr.substring(slash + 1));
+      } catch (NumberFormatException e) {
+        prefixLength = -1;
+      }
+      if (network == null || prefixLength < 0 || prefixLength > network.length * 8) {
+        throw new IllegalArgumentException("Invalid address range " + cidr);
+      }
+      return new Range(network, prefixLength);
+    }
+
+    boolean contains(byte[] address) {
+      if (address.length != network.length) {
+        return false;
+      }
+      int bits = prefixLength;
+      for (int i = 0; bits > 0; i++, bits -= 8) {
+        int mask = bits >= 8 ? 0xff : (0xff << (8 - bits)) & 0xff;
+        if ((address[i] & mask) != (network[i] & mask)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
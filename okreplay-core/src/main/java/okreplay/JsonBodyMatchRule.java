@@ -0,0 +1,104 @@
+package okreplay;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import okio.ByteString;
+
+/**
+ * Matches requests whose JSON bodies are equal regardless of member order, whitespace and number
+ * formatting. Members at the ignored paths, such as timestamps or nonces, are left out of the
+ * comparison. Paths are dot separated member names from the root of the document, where array
+ * elements are named by their index and {@code *} matches any name or index. For example:
+ * <p>
+ * [source,java]
+ * ----
+ * MatchRule rule = ComposedMatchRule.of(MatchRules.method, MatchRules.uri,
+ * JsonBodyMatchRule.ignoring("meta.timestamp", "items.*.nonce"));
+ * ----
+ * <p>
+ * The body of each request is canonicalized once and its digest kept with the request, so a
+ * request is compared to each recorded one by digest. Bodies that aren't JSON only match if they
+ * are equal byte for byte.
+ */
+public final class JsonBodyMatchRule implements KeyedMatchRule, CostedMatchRule {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final Set<String> ignoredPaths;
+  private final List<String[]> ignoredSegments = new ArrayList<>();
+  private final RequestView.Derivation canonicalKey = new RequestView.Derivation() {
+    @Override public String derive(Request request) {
+      return canonicalKey(request);
+    }
+  };
+
+  private JsonBodyMatchRule(Set<String> ignoredPaths) {
+    this.ignoredPaths = Collections.unmodifiableSet(ignoredPaths);
+    for (String path : ignoredPaths) {
+      ignoredSegments.add(path.split("\\."));
+    }
+  }
+
+  public static JsonBodyMatchRule ignoring(String... ignoredPaths) {
+    return new JsonBodyMatchRule(new LinkedHashSet<>(Arrays.asList(ignoredPaths)));
+  }
+
+  public Set<String> ignoredPaths() {
+    return ignoredPaths;
+  }
+
+  @Override public boolean isMatch(Request a, Request b) {
+    return key(a).equals(key(b));
+  }
+
+  @Override public String key(Request request) {
+    return RequestView.of(request).derivedKey(this, canonicalKey);
+  }
+
+  /** Canonicalizing is expensive, but done only once for each request. */
+  @Override public int cost() {
+    return CostedMatchRule.DEFAULT_COST;
+  }
+
+  /** The digest of the canonical form of the body of {@code request}. */
+  private String canonicalKey(Request request) {
+    if (!request.hasBody()) {
+      return RequestView.ABSENT;
+    }
+    String canonical;
+    try {
+      canonical = CanonicalJson.canonicalize(request.bodyAsText(), ignoredSegments);
+    } catch (IllegalArgumentException e) {
+      return "raw:" + RequestView.of(request).bodyKey();
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return "json:" + ByteString.of(digest.digest(canonical.getBytes(UTF_8))).hex();
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override public int hashCode() {
+    return ignoredPaths.hashCode();
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+
+    JsonBodyMatchRule that = (JsonBodyMatchRule) o;
+
+    return ignoredPaths.equals(that.ignoredPaths);
+  }
+}
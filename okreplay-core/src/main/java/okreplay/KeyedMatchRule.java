@@ -0,0 +1,21 @@
+package okreplay;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link MatchRule} that can reduce a request to a canonical key. Tapes use the key to index
+ * their recorded interactions so that a lookup only has to evaluate the rule against the
+ * interactions sharing the same key instead of scanning the whole tape.
+ * <p>
+ * Implementations must guarantee that whenever {@code isMatch(a, b)} returns {@code true},
+ * {@code key(a)} equals {@code key(b)}. The opposite is not required: requests with equal keys
+ * are still checked with {@link #isMatch(Request, Request)}. A rule either produces a key for
+ * every request or for none.
+ */
+public interface KeyedMatchRule extends MatchRule {
+  /**
+   * @return the key of {@code request}, or {@code null} if this rule cannot produce one, in which
+   * case tapes fall back to a linear scan.
+   */
+  @Nullable String key(Request request);
+}
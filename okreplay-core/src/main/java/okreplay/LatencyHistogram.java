@@ -0,0 +1,116 @@
+package okreplay;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations in nanoseconds without locking. Like an HDR histogram, values are counted in
+ * buckets whose width grows with their magnitude, so that each is recorded with a relative error
+ * of at most 12.5% in a fixed amount of memory.
+ */
+public final class LatencyHistogram {
+  /** Each power of two is split into 2^3 buckets. */
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    counts.incrementAndGet(bucket(value));
+    sum.addAndGet(value);
+    for (long current = max.get(); value > current; current = max.get()) {
+      if (max.compareAndSet(current, value)) {
+        break;
+      }
+    }
+  }
+
+  public Snapshot snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return new Snapshot(snapshot, sum.get(), max.get());
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** @return the largest value counted in {@code bucket}. */
+  static long highestValue(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /** The values recorded up to some point. */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Snapshot(long[] counts, long sum, long max) {
+      long count = 0;
+      for (long bucketCount : counts) {
+        count += bucketCount;
+      }
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public long maxNanos() {
+      return max;
+    }
+
+    public long meanNanos() {
+      return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @return the value that {@code percentile} percent of the recorded values are less than or
+     * equal to, within the precision of the histogram.
+     */
+    public long percentileNanos(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("percentile must be between 0 and 100");
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highestValue(i), max);
+        }
+      }
+      return 0;
+    }
+
+    @Override public String toString() {
+      return String.format("count=%d, mean=%dus, p50=%dus, p99=%dus, max=%dus", count,
+          TimeUnit.NANOSECONDS.toMicros(meanNanos()),
+          TimeUnit.NANOSECONDS.toMicros(percentileNanos(50)),
+          TimeUnit.NANOSECONDS.toMicros(percentileNanos(99)),
+          TimeUnit.NANOSECONDS.toMicros(max));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package okreplay;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stands in for a tape that is only loaded once a request consults it, so that tests making no
+ * requests don't pay for reading and parsing the tape file. The mode and match rule take effect
+ * immediately and are passed on to the tape when it is loaded.
+ */
+final class LazyTape implements SeekAndPlayTape {
+  interface Loader {
+    Tape load();
+  }
+
+  private final String name;
+  private final Loader loader;
+  private volatile TapeMode mode = TapeMode.UNDEFINED;
+  private volatile MatchRule matchRule;
+  private volatile Tape tape;
+
+  LazyTape(String name, Loader loader) {
+    this.name = name;
+    this.loader = loader;
+  }
+
+  /** @return the tape, loading it if it hasn't been yet. */
+  Tape loaded() {
+    Tape tape = this.tape;
+    if (tape == null) {
+      synchronized (this) {
+        tape = this.tape;
+        if (tape == null) {
+          tape = loader.load();
+          tape.setMode(mode);
+          tape.setMatchRule(matchRule);
+          this.tape = tape;
+        }
+      }
+    }
+    return tape;
+  }
+
+  /** @return the tape if it has been loaded, or {@code null} if nothing consulted it. */
+  @Nullable Tape loadedOrNull() {
+    return tape;
+  }
+
+  @Override public String getName() {
+    return name;
+  }
+
+  @Override public synchronized void setMode(TapeMode mode) {
+    this.mode = mode;
+    if (tape != null) {
+      tape.setMode(mode);
+    }
+  }
+
+  @Override public TapeMode getMode() {
+    return mode;
+  }
+
+  @Override public synchronized void setMatchRule(MatchRule matchRule) {
+    this.matchRule = matchRule;
+    if (tape != null) {
+      tape.setMatchRule(matchRule);
+    }
+  }
+
+  @Override public MatchRule getMatchRule() {
+    return matchRule;
+  }
+
+  @Override public boolean isReadable() {
+    return mode.isReadable();
+  }
+
+  /** Loads the tape if the mode is writable, as some tapes, e.g. mapped ones, can't be written. */
+  @Override public boolean isWritable() {
+    return mode.isWritable() && loaded().isWritable();
+  }
+
+  @Override public boolean isSequential() {
+    return mode.isSequential();
+  }
+
+  @Override public int size() {
+    return loaded().size();
+  }
+
+  @Override public boolean seek(Request request) {
+    return loaded().seek(request);
+  }
+
+  @Override public Response play(Request request) throws HandlerException {
+    return loaded().play(request);
+  }
+
+  @Override public Response seekAndPlay(Request request) {
+    Tape tape = loaded();
+    if (tape instanceof SeekAndPlayTape) {
+      return ((SeekAndPlayTape) tape).seekAndPlay(request);
+    }
+    return tape.seek(request) ? tape.play(request) : null;
+  }
+
+  @Override public void record(Request request, Response response) {
+    loaded().record(request, response);
+  }
+
+  @Override public boolean isDirty() {
+    Tape tape = this.tape;
+    return tape != null && tape.isDirty();
+  }
+
+  @Override public String toString() {
+    return String.format("LazyTape[%s]", name);
+  }
+}
@@ -0,0 +1,56 @@
+package okreplay;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs events with {@link java.util.logging}. Registered by default. Messages are only formatted
+ * if they are logged.
+ */
+public class LoggingEventListener extends OkReplayEventListener {
+  private static final Logger LOG = Logger.getLogger(LoggingEventListener.class.getSimpleName());
+
+  @Override public void tapeLoaded(Tape tape, String fileName, long tookNanos) {
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info(String.format(Locale.US, "loaded tape with %d recorded interactions from file "
+          + "%s in %d ms", tape.size(), fileName, TimeUnit.NANOSECONDS.toMillis(tookNanos)));
+    }
+  }
+
+  @Override public void requestMatched(Tape tape, Request request, long tookNanos) {
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info(String.format("Playing back request %s %s from tape '%s'", request.method(),
+          request.url(), tape.getName()));
+    }
+  }
+
+  @Override public void requestMissed(Tape tape, Request request, long tookNanos) {
+    if (LOG.isLoggable(Level.WARNING)) {
+      LOG.warning(String.format("no matching request found on tape '%s' for request %s %s",
+          tape.getName(), request.method(), request.url()));
+    }
+  }
+
+  @Override public void interactionRecorded(Tape tape, Request request, long tookNanos) {
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info(String.format("Recorded request %s %s to tape '%s'", request.method(),
+          request.url(), tape.getName()));
+    }
+  }
+
+  @Override public void interactionDropped(Tape tape, Request request) {
+    if (LOG.isLoggable(Level.WARNING)) {
+      LOG.warning(String.format("Dropped request %s %s completed after tape '%s' was stopped",
+          request.method(), request.url(), tape.getName()));
+    }
+  }
+
+  @Override public void tapeWritten(Tape tape, String fileName, long tookNanos) {
+    if (LOG.isLoggable(Level.INFO)) {
+      LOG.info(String.format(Locale.US, "wrote tape %s to file %s in %d ms", tape.getName(),
+          fileName, TimeUnit.NANOSECONDS.toMillis(tookNanos)));
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package okreplay;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import okhttp3.MediaType;
+import okio.Buffer;
+import okio.Source;
+import okio.Timeout;
+
+import static okreplay.BinaryTapeLoader.BODY_BINARY;
+import static okreplay.BinaryTapeLoader.BODY_NONE;
+import static okreplay.BinaryTapeLoader.BODY_TEXT;
+import static okreplay.Util.CONTENT_TYPE;
+
+/**
+ * The interactions of a memory-mapped binary tape. Each interaction is decoded from the mapping
+ * the first time it is accessed, using the offset table at the end of the tape file. Matching only
+ * needs the requests, which {@link #request(int)} decodes and keeps without the responses, so the
+ * keys the match rules derive from them are only computed once.
+ */
+class MappedInteractions extends AbstractList<YamlRecordedInteraction> {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final ByteBuffer buffer;
+  private final String[] headerNames;
+  /** The offset of each interaction in {@code buffer}. */
+  private final ByteBuffer table;
+  private final AtomicReferenceArray<YamlRecordedInteraction> decoded;
+  private final AtomicReferenceArray<Request> requests;
+
+  MappedInteractions(ByteBuffer buffer, String[] headerNames, int size, ByteBuffer table) {
+    this.buffer = buffer;
+    this.headerNames = headerNames;
+    this.table = table;
+    this.decoded = new AtomicReferenceArray<>(size);
+    this.requests = new AtomicReferenceArray<>(size);
+  }
+
+  @Override public YamlRecordedInteraction get(int index) {
+    YamlRecordedInteraction interaction = decoded.get(index);
+    if (interaction == null) {
+      // Racing threads decode the same interaction and all of them use the first one kept.
+      decoded.compareAndSet(index, null, decode((int) table.getLong(8 * index)));
+      interaction = decoded.get(index);
+    }
+    return interaction;
+  }
+
+  @Override public int size() {
+    return decoded.length();
+  }
+
+  /**
+   * @return the request of the interaction at {@code index}, which is decoded without the response
+   * the first time and then kept, along with the keys matching derives from it.
+   */
+  Request request(int index) {
+    Request request = requests.get(index);
+    if (request == null) {
+      ByteBuffer view = view((int) table.getLong(8 * index));
+      view.getLong();
+      requests.compareAndSet(index, null, readRequest(view).toImmutable());
+      request = requests.get(index);
+    }
+    return request;
+  }
+
+  /** @return the number of interactions that have been decoded and are kept. */
+  int decodedCount() {
+    int count = 0;
+    for (int i = 0, size = decoded.length(); i < size; i++) {
+      if (decoded.get(i) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private YamlRecordedInteraction decode(int offset) {
+    ByteBuffer view = view(offset);
+    Date recorded = new Date(view.getLong());
+    YamlRecordedRequest request = readRequest(view);
+    int status = view.getInt();
+    Map<String, String> responseHeaders = readHeaders(view);
+    Object responseBody = readBody(view, true, responseHeaders.get(CONTENT_TYPE));
+    return new YamlRecordedInteraction(recorded, request,
+        new YamlRecordedResponse(responseHeaders, responseBody, status));
+  }
+
+  private ByteBuffer view(int offset) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    return view;
+  }
+
+  private YamlRecordedRequest readRequest(ByteBuffer view) {
+    String method = readString(view);
+    URI uri = URI.create(readString(view));
+    Map<String, String> headers = readHeaders(view);
+    Object body = readBody(view, false, null);
+    return new YamlRecordedRequest(headers, body, method, uri);
+  }
+
+  private Map<String, String> readHeaders(ByteBuffer view) {
+    int count = view.getInt();
+    Map<String, String> headers = new LinkedHashMap<>(count);
+    for (int i = 0; i < count; i++) {
+      headers.put(headerNames[view.getInt()], readString(view));
+    }
+    return headers;
+  }
+
+  /**
+   * Reads a body, either into memory or, for a response, as a slice of the mapping. Text bodies
+   * are stored as UTF-8 so they can only be sliced if that's also the charset they are served in.
+   */
+  private static Object readBody(ByteBuffer view, boolean slice, String contentType) {
+    byte type = view.get();
+    if (type == BODY_NONE) {
+      return null;
+    } else if (type != BODY_TEXT && type != BODY_BINARY) {
+      throw new TapeLoadException("Invalid tape: unknown body type " + type);
+    }
+    int length = view.getInt();
+    if (slice && (type == BODY_BINARY || isUtf8(contentType))) {
+      ByteBuffer body = view.duplicate();
+      body.limit(body.position() + length);
+      view.position(view.position() + length);
+      return new MappedBody(body.slice());
+    }
+    byte[] bytes = new byte[length];
+    view.get(bytes);
+    return type == BODY_TEXT ? new String(bytes, UTF_8) : bytes;
+  }
+
+  private static boolean isUtf8(String contentType) {
+    MediaType mediaType = contentType != null ? MediaType.parse(contentType) : null;
+    return mediaType == null || mediaType.charset(UTF_8).equals(UTF_8);
+  }
+
+  private static String readString(ByteBuffer view) {
+    byte[] bytes = new byte[view.getInt()];
+    view.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /** A body served from a slice of the mapped tape file. */
+  private static class MappedBody extends ExternalBody {
+    private final ByteBuffer slice;
+
+    MappedBody(ByteBuffer slice) {
+      this.slice = slice;
+    }
+
+    @Override long size() {
+      return slice.remaining();
+    }
+
+    @Override Source source() {
+      final ByteBuffer remaining = slice.duplicate();
+      return new Source() {
+        private final byte[] chunk = new byte[8192];
+
+        @Override public long read(Buffer sink, long byteCount) throws IOException {
+          if (!remaining.hasRemaining()) {
+            return -1;
+          }
+          int count = (int) Math.min(Math.min(byteCount, chunk.length), remaining.remaining());
+          remaining.get(chunk, 0, count);
+          sink.write(chunk, 0, count);
+          return count;
+        }
+
+        @Override public Timeout timeout() {
+          return Timeout.NONE;
+        }
+
+        @Override public void close() {
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package okreplay;
+
+import java.util.List;
+
+/**
+ * A read-only tape backed by a memory-mapped binary tape file. Interactions are only decoded when
+ * they are first matched or played, and response bodies are served straight from the mapping.
+ */
+class MappedTape extends MemoryTape {
+  private final List<YamlRecordedInteraction> interactions;
+
+  MappedTape(String name, List<YamlRecordedInteraction> interactions) {
+    super(interactions);
+    this.interactions = interactions;
+    setName(name);
+  }
+
+  /** @return the number of interactions that have been decoded from the mapping so far. */
+  int decodedCount() {
+    return interactions instanceof MappedInteractions
+        ? ((MappedInteractions) interactions).decodedCount() : 0;
+  }
+
+  @Override public boolean isWritable() {
+    return false;
+  }
+
+  @Override public boolean isDirty() {
+    return false;
+  }
+
+  @Override public void record(Request request, Response response) {
+    throw new UnsupportedOperationException("mapped tapes are read-only");
+  }
+}
@@ -0,0 +1,142 @@
+package okreplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import static okreplay.BinaryTapeLoader.BODY_NONE;
+import static okreplay.BinaryTapeLoader.MAGIC;
+import static okreplay.BinaryTapeLoader.VERSION;
+
+/**
+ * Loads binary tapes by mapping them into memory instead of reading them. Loading only reads the
+ * file header, so it takes constant time and almost no heap regardless of the tape size. The
+ * resulting tapes are read-only and the tape files need to be on the local file system.
+ */
+class MappedTapeLoader implements TapeLoader<MappedTape> {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final TapeRoot tapeRoot;
+
+  MappedTapeLoader(TapeRoot tapeRoot) {
+    if (!(tapeRoot instanceof DefaultTapeRoot)) {
+      throw new IllegalArgumentException("Mapped tapes require a DefaultTapeRoot");
+    }
+    this.tapeRoot = tapeRoot;
+  }
+
+  @Override public MappedTape loadTape(String tapeName) {
+    String fileName = normalize(tapeName);
+    if (tapeRoot.tapeExists(fileName)) {
+      return map(new File(tapeRoot.get(), fileName));
+    } else {
+      return new MappedTape(tapeName, Collections.<YamlRecordedInteraction>emptyList());
+    }
+  }
+
+  /** Mapped tapes are read-only so there is never anything to write. */
+  @Override public void writeTape(Tape tape) {
+  }
+
+  @Override public String normalize(String tapeName) {
+    return FilenameNormalizer.toFilename(tapeName) + BinaryTapeLoader.EXTENSION;
+  }
+
+  MappedTape map(File file) {
+    try {
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+      ByteBuffer buffer;
+      try {
+        FileChannel channel = randomAccessFile.getChannel();
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new TapeLoadException("Tape is too large to be mapped: " + file);
+        }
+        // The mapping stays valid after the channel is closed.
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        randomAccessFile.close();
+      }
+      if (buffer.getInt() != MAGIC) {
+        throw new TapeLoadException("Invalid tape: not a binary tape");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new TapeLoadException("Invalid tape: unsupported version " + version);
+      }
+      String name = readString(buffer);
+      String[] headerNames = new String[buffer.getInt()];
+      for (int i = 0; i < headerNames.length; i++) {
+        headerNames[i] = readString(buffer);
+      }
+      int size = buffer.getInt();
+      return new MappedTape(name,
+          new MappedInteractions(buffer, headerNames, size, offsetTable(buffer, size)));
+    } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+        | IllegalArgumentException e) {
+      throw new TapeLoadException("Invalid tape", e);
+    }
+  }
+
+  /**
+   * Returns the offset table at the end of the tape, or builds one by skipping through the
+   * interactions if the trailer doesn't point to a table, e.g. because an append was cut off.
+   * {@code buffer} is positioned at the first interaction.
+   */
+  private static ByteBuffer offsetTable(ByteBuffer buffer, int size) {
+    int first = buffer.position();
+    long tableOffset = buffer.limit() >= 8 ? buffer.getLong(buffer.limit() - 8) : -1;
+    long tableLength = buffer.limit() - 8 - tableOffset;
+    if (tableOffset >= first && tableLength >= 8L * size && tableLength % 8 == 0
+        && (size == 0 || buffer.getLong((int) tableOffset) == first)) {
+      ByteBuffer table = buffer.duplicate();
+      table.position((int) tableOffset);
+      return table.slice();
+    }
+    ByteBuffer table = ByteBuffer.allocate(8 * size);
+    ByteBuffer view = buffer.duplicate();
+    for (int i = 0; i < size; i++) {
+      table.putLong(8 * i, view.position());
+      skipInteraction(view);
+    }
+    return table;
+  }
+
+  private static void skipInteraction(ByteBuffer view) {
+    view.getLong();
+    skipString(view);
+    skipString(view);
+    skipHeaders(view);
+    skipBody(view);
+    view.getInt();
+    skipHeaders(view);
+    skipBody(view);
+  }
+
+  private static void skipHeaders(ByteBuffer view) {
+    for (int i = 0, count = view.getInt(); i < count; i++) {
+      view.getInt();
+      skipString(view);
+    }
+  }
+
+  private static void skipBody(ByteBuffer view) {
+    if (view.get() != BODY_NONE) {
+      skipString(view);
+    }
+  }
+
+  private static void skipString(ByteBuffer view) {
+    int length = view.getInt();
+    view.position(view.position() + length);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
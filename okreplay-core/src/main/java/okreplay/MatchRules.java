@@ -1,58 +1,121 @@
 package okreplay;
 
 import java.util.Arrays;
+import java.util.Locale;
 
-/** Standard {@link MatchRule} implementations. */
-public enum MatchRules implements MatchRule {
-  method {
+/**
+ * Standard {@link MatchRule} implementations. Their costs order them from comparing the method to
+ * comparing the port, host, path, query, headers and finally the body.
+ */
+public enum MatchRules implements KeyedMatchRule, CostedMatchRule {
+  method(10) {
     @Override public boolean isMatch(Request a, Request b) {
       return a.method().equalsIgnoreCase(b.method());
     }
-  }, uri {
+
+    @Override public String key(Request request) {
+      return request.method().toUpperCase(Locale.US);
+    }
+  }, uri(50) {
     @Override public boolean isMatch(Request a, Request b) {
       return a.url().equals(b.url());
     }
-  }, host {
+
+    @Override public String key(Request request) {
+      return request.url().toString();
+    }
+  }, host(30) {
     @Override public boolean isMatch(Request a, Request b) {
-      return a.url().url().getHost().equals(b.url().url().getHost());
+      return RequestView.of(a).host.equals(RequestView.of(b).host);
     }
-  }, path {
+
+    @Override public String key(Request request) {
+      return RequestView.of(request).host;
+    }
+  }, path(40) {
     @Override public boolean isMatch(Request a, Request b) {
-      return a.url().url().getPath().equals(b.url().url().getPath());
+      return RequestView.of(a).path.equals(RequestView.of(b).path);
+    }
+
+    @Override public String key(Request request) {
+      return RequestView.of(request).path;
     }
-  }, port {
+  }, port(20) {
     @Override public boolean isMatch(Request a, Request b) {
-      return a.url().url().getPort() == b.url().url().getPort();
+      return RequestView.of(a).port == RequestView.of(b).port;
+    }
+
+    @Override public String key(Request request) {
+      return String.valueOf(RequestView.of(request).port);
     }
-  }, query {
+  }, query(50) {
     @Override public boolean isMatch(Request a, Request b) {
-      return a.url().url().getQuery().equals(b.url().url().getQuery());
+      String query = RequestView.of(a).query;
+      String other = RequestView.of(b).query;
+      return query == null ? other == null : query.equals(other);
     }
-  }, queryParams {
+
+    @Override public String key(Request request) {
+      return String.valueOf(RequestView.of(request).query);
+    }
+  }, queryParams(60) {
     /** Compare query parameters instead of query string representation. */
     @Override public boolean isMatch(Request a, Request b) {
-      if ((a.url().url().getQuery() != null) && (b.url().url().getQuery() != null)) {
-        // both request have a query, split query params and compare
-        String[] aParameters = a.url().url().getQuery().split("&");
-        String[] bParameters = b.url().url().getQuery().split("&");
-        Arrays.sort(aParameters);
-        Arrays.sort(bParameters);
-        return Arrays.equals(aParameters, bParameters);
-      } else {
-        return (a.url().url().getQuery() == null) && (b.url().url().getQuery() == null);
-      }
+      return Arrays.equals(
+          RequestView.of(a).queryParameters(), RequestView.of(b).queryParameters());
+    }
+
+    /** The sorted query parameters, or a marker that cannot be a query for a missing query. */
+    @Override public String key(Request request) {
+      return RequestView.of(request).queryParametersKey();
     }
-  }, authorization {
+  }, authorization(70) {
     @Override public boolean isMatch(Request a, Request b) {
       return a.header("Authorization").equals(b.header("Authorization"));
     }
-  }, accept {
+
+    @Override public String key(Request request) {
+      return String.valueOf(request.header("Authorization"));
+    }
+  }, accept(70) {
     @Override public boolean isMatch(Request a, Request b) {
       return a.header("Accept").equals(b.header("Accept"));
     }
-  }, body {
+
+    @Override public String key(Request request) {
+      return String.valueOf(request.header("Accept"));
+    }
+  }, bodyDigest(90) {
+    /**
+     * Compares the lengths and SHA-256 digests of the bodies, which are computed once for each
+     * request, instead of the bodies themselves.
+     */
+    @Override public boolean isMatch(Request a, Request b) {
+      return RequestView.of(a).bodyKey().equals(RequestView.of(b).bodyKey());
+    }
+
+    @Override public String key(Request request) {
+      return RequestView.of(request).bodyKey();
+    }
+  }, body(100) {
+    /** Bodies are only compared byte by byte if their lengths and digests are equal. */
     @Override public boolean isMatch(Request a, Request b) {
-      return Arrays.equals(a.body(), b.body());
+      return RequestView.of(a).bodyKey().equals(RequestView.of(b).bodyKey())
+          && Arrays.equals(a.body(), b.body());
+    }
+
+    @Override public String key(Request request) {
+      return RequestView.of(request).bodyKey();
     }
+  };
+
+  private final int cost;
+
+  MatchRules(int cost) {
+    this.cost = cost;
+  }
+
+  @Override public int cost() {
+    return cost;
   }
 }
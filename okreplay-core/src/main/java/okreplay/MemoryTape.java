@@ -1,8 +1,11 @@
 package okreplay;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.unmodifiableList;
@@ -11,13 +14,39 @@ import static okreplay.Util.VIA;
 /**
  * Represents a set of recorded HTTP interactions that can be played back or
  * appended to.
+ * <p>
+ * The interactions are kept in a list that is never modified once it is on the tape. Recording
+ * publishes a modified copy instead, so playback works on a consistent snapshot without taking a
+ * lock, while concurrent recordings are serialized on the tape.
  */
-abstract class MemoryTape implements Tape {
+abstract class MemoryTape implements SeekAndPlayTape {
   private String name;
-  private List<YamlRecordedInteraction> interactions = new ArrayList<>();
-  private transient TapeMode mode = OkReplayConfig.DEFAULT_MODE;
-  private transient MatchRule matchRule = OkReplayConfig.DEFAULT_MATCH_RULE;
+  private volatile List<YamlRecordedInteraction> interactions;
+  private transient volatile TapeMode mode = OkReplayConfig.DEFAULT_MODE;
+  private transient volatile MatchRule matchRule = OkReplayConfig.DEFAULT_MATCH_RULE;
   private final transient AtomicInteger orderedIndex = new AtomicInteger();
+  /**
+   * Positions of the interactions grouped by the key of their request, if the match rule is a
+   * {@link KeyedMatchRule}. Built lazily and only used for the interactions and rule it was built
+   * for.
+   */
+  private transient volatile Index index;
+  /**
+   * Number of leading interactions that are unchanged since the tape was last loaded or written.
+   * Interactions after them can be appended to the tape file instead of rewriting it.
+   */
+  private transient int persistedSize;
+  /** Whether one of the persisted interactions has been overwritten since. */
+  private transient boolean persistedChanged;
+
+  MemoryTape() {
+    this(new ArrayList<YamlRecordedInteraction>());
+  }
+
+  /** Uses {@code interactions} as the backing list without copying it. It is never modified. */
+  MemoryTape(List<YamlRecordedInteraction> interactions) {
+    this.interactions = interactions;
+  }
 
   @Override public String getName() {
     return name;
@@ -63,15 +92,34 @@ abstract class MemoryTape implements Tape {
     return unmodifiableList(interactions);
   }
 
-  public void setInteractions(List<YamlRecordedInteraction> interactions) {
+  public synchronized void setInteractions(List<YamlRecordedInteraction> interactions) {
     this.interactions = new ArrayList<>(interactions);
+    this.persistedSize = 0;
+    this.persistedChanged = false;
+  }
+
+  /** Records that the interactions currently on the tape are the ones in its file. */
+  synchronized void markPersisted() {
+    persistedSize = interactions.size();
+    persistedChanged = false;
+  }
+
+  /**
+   * @return the interactions recorded since the tape was last loaded or written, or {@code null}
+   * if an interaction that is already in the file has been overwritten and the file needs to be
+   * rewritten.
+   */
+  synchronized List<YamlRecordedInteraction> unpersistedInteractions() {
+    if (persistedChanged) {
+      return null;
+    }
+    return new ArrayList<>(interactions.subList(persistedSize, interactions.size()));
   }
 
   @Override public boolean seek(Request request) {
+    List<YamlRecordedInteraction> interactions = this.interactions;
     if (isSequential()) {
       try {
-        // TODO: it's a complete waste of time using an AtomicInteger when this method is called
-        // before play in a non-transactional way
         int index = orderedIndex.get();
         RecordedInteraction interaction = interactions.get(index).toImmutable();
         Request nextRequest = interaction == null ? null : interaction.request();
@@ -80,7 +128,7 @@ abstract class MemoryTape implements Tape {
         throw new NonWritableTapeException();
       }
     } else {
-      return findMatch(request) >= 0;
+      return findMatch(request, interactions) >= 0;
     }
   }
 
@@ -89,6 +137,7 @@ abstract class MemoryTape implements Tape {
       throw new IllegalStateException("the tape is not readable");
     }
 
+    List<YamlRecordedInteraction> interactions = this.interactions;
     if (mode.isSequential()) {
       int nextIndex = orderedIndex.getAndIncrement();
       RecordedInteraction nextInteraction = interactions.get(nextIndex).toImmutable();
@@ -104,7 +153,7 @@ abstract class MemoryTape implements Tape {
 
       return nextInteraction.response();
     } else {
-      int position = findMatch(request);
+      int position = findMatch(request, interactions);
       if (position < 0) {
         throw new IllegalStateException("no matching recording found");
       } else {
@@ -113,6 +162,38 @@ abstract class MemoryTape implements Tape {
     }
   }
 
+  @Override public Response seekAndPlay(Request request) {
+    if (!mode.isReadable()) {
+      throw new IllegalStateException("the tape is not readable");
+    }
+
+    if (mode.isSequential()) {
+      while (true) {
+        List<YamlRecordedInteraction> interactions = this.interactions;
+        int index = orderedIndex.get();
+        if (index >= interactions.size()) {
+          throw new NonWritableTapeException();
+        }
+        RecordedInteraction interaction = interactions.get(index).toImmutable();
+        if (!matchRule.isMatch(request, interaction.request())) {
+          return null;
+        }
+        // Only advance if no other thread has played this interaction in the meantime.
+        if (orderedIndex.compareAndSet(index, index + 1)) {
+          return interaction.response();
+        }
+      }
+    } else {
+      return playMatch(request);
+    }
+  }
+
+  private Response playMatch(Request request) {
+    List<YamlRecordedInteraction> interactions = this.interactions;
+    int position = findMatch(request, interactions);
+    return position < 0 ? null : interactions.get(position).toImmutable().response();
+  }
+
   private String stringify(Request request) {
     byte[] body = request.body() != null ? request.body() : new byte[0];
     String bodyLog = " (binary " + body.length + "-byte body omitted)";
@@ -120,7 +201,7 @@ abstract class MemoryTape implements Tape {
         request.headers() + ", " + bodyLog;
   }
 
-  @Override public synchronized void record(Request request, Response response) {
+  @Override public void record(Request request, Response response) {
     if (!mode.isWritable()) {
       throw new IllegalStateException("the tape is not writable");
     }
@@ -128,28 +209,99 @@ abstract class MemoryTape implements Tape {
     RecordedInteraction interaction = new RecordedInteraction(new Date(), recordRequest(request),
         recordResponse(response));
 
-    if (mode.isSequential()) {
-      interactions.add(interaction.toYaml());
-    } else {
-      int position = findMatch(request);
-      if (position >= 0) {
-        interactions.set(position, interaction.toYaml());
+    // Converted outside the lock, as preparing an interaction may write its body to a file.
+    YamlRecordedInteraction yamlInteraction = prepare(interaction.toYaml());
+    synchronized (this) {
+      if (mode.isSequential()) {
+        add(yamlInteraction);
       } else {
-        interactions.add(interaction.toYaml());
+        int position = findMatch(request, interactions);
+        if (position >= 0) {
+          replace(position, yamlInteraction);
+        } else {
+          add(yamlInteraction);
+        }
       }
     }
   }
 
+  /** Called with each recorded interaction before it is put on the tape. */
+  YamlRecordedInteraction prepare(YamlRecordedInteraction interaction) {
+    return interaction;
+  }
+
+  private void add(YamlRecordedInteraction interaction) {
+    List<YamlRecordedInteraction> previous = interactions;
+    List<YamlRecordedInteraction> updated = new ArrayList<>(previous.size() + 1);
+    updated.addAll(previous);
+    updated.add(interaction);
+    publish(previous, updated, previous.size());
+  }
+
+  private void replace(int position, YamlRecordedInteraction interaction) {
+    List<YamlRecordedInteraction> previous = interactions;
+    List<YamlRecordedInteraction> updated = new ArrayList<>(previous);
+    updated.set(position, interaction);
+    if (position < persistedSize) {
+      persistedChanged = true;
+    }
+    publish(previous, updated, position);
+  }
+
+  /**
+   * Replaces {@code previous} with {@code updated}, which differs from it at {@code position}
+   * only, carrying the index over if there is one.
+   */
+  private void publish(List<YamlRecordedInteraction> previous,
+      List<YamlRecordedInteraction> updated, int position) {
+    Index index = this.index;
+    if (index != null && index.isFor(previous, matchRule)) {
+      this.index = index.update(updated, position);
+    }
+    interactions = updated;
+  }
+
   @Override public String toString() {
     return String.format("Tape[%s]", name);
   }
 
-  private synchronized int findMatch(final Request request) {
-    return Util.indexOf(interactions.iterator(), new Predicate<YamlRecordedInteraction>() {
-      @Override public boolean apply(YamlRecordedInteraction input) {
-        return matchRule.isMatch(request, input.toImmutable().request());
+  private int findMatch(Request request, List<YamlRecordedInteraction> interactions) {
+    MatchRule matchRule = this.matchRule;
+    String key = matchRule instanceof KeyedMatchRule
+        ? ((KeyedMatchRule) matchRule).key(request) : null;
+    if (key != null) {
+      Index index = this.index;
+      if (index == null || !index.isFor(interactions, matchRule)) {
+        // Readers racing with a recording may replace a newer index, which only costs a rebuild.
+        index = new Index(interactions, (KeyedMatchRule) matchRule);
+        this.index = index;
       }
-    });
+      List<Integer> positions = index.positions.get(key);
+      if (positions != null) {
+        for (int position : positions) {
+          if (matchRule.isMatch(request, requestAt(interactions, position))) {
+            return position;
+          }
+        }
+      }
+      return -1;
+    }
+    for (int i = 0, size = interactions.size(); i < size; i++) {
+      if (matchRule.isMatch(request, requestAt(interactions, i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the request at {@code position}. The requests of mapped interactions are decoded
+   * without their responses and not kept, so matching doesn't decode the whole tape.
+   */
+  private static Request requestAt(List<YamlRecordedInteraction> interactions, int position) {
+    return interactions instanceof MappedInteractions
+        ? ((MappedInteractions) interactions).request(position)
+        : interactions.get(position).toImmutable().request();
   }
 
   private Request recordRequest(Request request) {
@@ -164,4 +316,64 @@ abstract class MemoryTape implements Tape {
         .removeHeader(Headers.X_OKREPLAY)
         .build();
   }
+
+  /** The positions of a list of interactions grouped by their key. Never modified once built. */
+  private static final class Index {
+    final List<YamlRecordedInteraction> interactions;
+    final KeyedMatchRule matchRule;
+    final Map<String, List<Integer>> positions;
+
+    Index(List<YamlRecordedInteraction> interactions, KeyedMatchRule matchRule) {
+      this(interactions, matchRule, new HashMap<String, List<Integer>>());
+      for (int i = 0, size = interactions.size(); i < size; i++) {
+        String key = keyAt(interactions, i);
+        List<Integer> bucket = positions.get(key);
+        if (bucket == null) {
+          bucket = new ArrayList<>(1);
+          positions.put(key, bucket);
+        }
+        bucket.add(i);
+      }
+    }
+
+    private Index(List<YamlRecordedInteraction> interactions, KeyedMatchRule matchRule,
+        Map<String, List<Integer>> positions) {
+      this.interactions = interactions;
+      this.matchRule = matchRule;
+      this.positions = positions;
+    }
+
+    boolean isFor(List<YamlRecordedInteraction> interactions, MatchRule matchRule) {
+      return this.interactions == interactions && this.matchRule == matchRule;
+    }
+
+    /** Returns an index of {@code updated}, which differs from the indexed list at one position. */
+    Index update(List<YamlRecordedInteraction> updated, int position) {
+      Index index = new Index(updated, matchRule, new HashMap<>(positions));
+      if (position < interactions.size()) {
+        String key = index.keyAt(interactions, position);
+        List<Integer> bucket = new ArrayList<>(index.positions.get(key));
+        bucket.remove(Integer.valueOf(position));
+        index.positions.put(key, bucket);
+      }
+      index.add(position);
+      return index;
+    }
+
+    /** Adds {@code position} to a copy of its bucket, keeping it sorted so the first match wins. */
+    private void add(int position) {
+      String key = keyAt(interactions, position);
+      List<Integer> bucket = positions.get(key);
+      bucket = bucket == null ? new ArrayList<Integer>(1) : new ArrayList<>(bucket);
+      int insertionPoint = Collections.binarySearch(bucket, position);
+      if (insertionPoint < 0) {
+        bucket.add(-insertionPoint - 1, position);
+      }
+      positions.put(key, bucket);
+    }
+
+    private String keyAt(List<YamlRecordedInteraction> interactions, int position) {
+      return matchRule.key(requestAt(interactions, position));
+    }
+  }
 }
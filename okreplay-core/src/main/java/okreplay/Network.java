@@ -4,15 +4,22 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 
 class Network {
-  static Collection<String> getLocalAddresses() {
-    try {
-      InetAddress local = InetAddress.getLocalHost();
-      return Arrays.asList(local.getHostName(), local.getHostAddress(), "localhost",
-          "127.0.0.1");
-    } catch (UnknownHostException e) {
-      throw new RuntimeException(e);
+  private static Collection<String> localAddresses;
+
+  /** Looks up the local addresses once and returns the same ones from then on. */
+  static synchronized Collection<String> getLocalAddresses() {
+    if (localAddresses == null) {
+      try {
+        InetAddress local = InetAddress.getLocalHost();
+        localAddresses = Collections.unmodifiableList(Arrays.asList(local.getHostName(),
+            local.getHostAddress(), "localhost", "127.0.0.1"));
+      } catch (UnknownHostException e) {
+        throw new RuntimeException(e);
+      }
     }
+    return localAddresses;
   }
 }
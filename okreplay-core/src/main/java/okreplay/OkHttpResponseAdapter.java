@@ -5,12 +5,26 @@ import java.io.IOException;
 import okhttp3.MediaType;
 import okhttp3.ResponseBody;
 import okio.BufferedSource;
+import okio.Okio;
 
 class OkHttpResponseAdapter {
   /** Construct a OkHttp Response from a previously recorded interaction */
   static okhttp3.Response adapt(okhttp3.Request okhttpRequest, Response recordedResponse) {
-    ResponseBody responseBody = ResponseBody.create(
-        MediaType.parse(recordedResponse.getContentType()), recordedResponse.body());
+    MediaType mediaType = MediaType.parse(recordedResponse.getContentType());
+    ResponseBody responseBody;
+    ExternalBody externalBody = recordedResponse instanceof RecordedMessage
+        ? ((RecordedMessage) recordedResponse).externalBody : null;
+    if (externalBody != null) {
+      try {
+        // Stream the body instead of reading it into memory first.
+        responseBody = ResponseBody.create(mediaType, externalBody.size(),
+            Okio.buffer(externalBody.source()));
+      } catch (IOException e) {
+        throw new RuntimeException("Failed to read recorded body", e);
+      }
+    } else {
+      responseBody = ResponseBody.create(mediaType, recordedResponse.body());
+    }
     return new okhttp3.Response.Builder()
         .headers(recordedResponse.headers())
         .body(responseBody)
@@ -31,25 +31,54 @@ import java.util.Set;
 public class OkReplayConfig {
   public static final String DEFAULT_TAPE_ROOT = "src/test/resources/okreplay/tapes";
   public static final TapeMode DEFAULT_MODE = TapeMode.READ_ONLY;
+  public static final long DEFAULT_TAPE_CACHE_SIZE = 0;
   public static final MatchRule DEFAULT_MATCH_RULE = ComposedMatchRule.of(MatchRules.method,
       MatchRules.uri);
 
   private final TapeRoot tapeRoot;
+  private final TapeFormat tapeFormat;
+  private final int bodyStoreThreshold;
+  private final long tapeCacheSize;
   private final TapeMode defaultMode;
+  private final TapeScope tapeScope;
   private final Collection<String> ignoreHosts;
   private final boolean ignoreLocalhost;
+  private final HostMatcher ignoredHostMatcher;
   private final MatchRule defaultMatchRule;
   private final boolean sslEnabled;
+  private final boolean streamRecording;
+  private final boolean asyncRecording;
+  private final boolean writeBehind;
+  private final boolean lazyTapeLoading;
   private final OkReplayInterceptor interceptor;
+  private final OkReplayEventListener eventListener;
+  private final OkReplayMetrics metrics;
 
   protected OkReplayConfig(Builder builder) {
     this.tapeRoot = builder.tapeRoot;
+    this.tapeFormat = builder.tapeFormat;
+    this.bodyStoreThreshold = builder.bodyStoreThreshold;
+    this.tapeCacheSize = builder.tapeCacheSize;
     this.defaultMode = builder.defaultMode;
+    this.tapeScope = builder.tapeScope;
     this.defaultMatchRule = builder.defaultMatchRule;
     this.ignoreHosts = builder.ignoreHosts;
     this.ignoreLocalhost = builder.ignoreLocalhost;
+    // Compiled once and shared by all sessions, as it may look up the local addresses.
+    this.ignoredHostMatcher = new HostMatcher(ignoreLocalhost
+        ? concat(ignoreHosts, Network.getLocalAddresses()) : ignoreHosts);
     this.sslEnabled = builder.sslEnabled;
+    this.streamRecording = builder.streamRecording;
+    this.asyncRecording = builder.asyncRecording;
+    this.writeBehind = builder.writeBehind;
+    this.lazyTapeLoading = builder.lazyTapeLoading;
     this.interceptor = builder.interceptor;
+    this.metrics = builder.metrics;
+    List<OkReplayEventListener> eventListeners = new ArrayList<>(builder.eventListeners);
+    if (metrics != null) {
+      eventListeners.add(metrics);
+    }
+    this.eventListener = OkReplayEventListener.of(eventListeners);
   }
 
   /**
@@ -59,6 +88,33 @@ public class OkReplayConfig {
     return tapeRoot;
   }
 
+  /**
+   * The format tapes are read from and written to.
+   */
+  public TapeFormat getTapeFormat() {
+    return tapeFormat;
+  }
+
+  /**
+   * The size in bytes above which response bodies of YAML tapes are written once to the `bodies`
+   * directory of the tape root, named by their content hash, instead of inline. Such bodies are
+   * moved there as soon as they are recorded and streamed from there when they are played back,
+   * so they are never held in memory with the tape. `-1`, the default, keeps all bodies inline.
+   */
+  public int getBodyStoreThreshold() {
+    return bodyStoreThreshold;
+  }
+
+  /**
+   * The total size in bytes of the tape files whose parsed interactions are kept in memory and
+   * shared by all recorders in the process, so a tape used by many tests is only parsed once.
+   * Parsed tapes take a few times the size of their files on the heap. The cache is shared, so it
+   * holds as much as the largest size configured. `0`, the default, disables it.
+   */
+  public long getTapeCacheSize() {
+    return tapeCacheSize;
+  }
+
   /**
    * The default mode for an inserted tape.
    */
@@ -66,6 +122,14 @@ public class OkReplayConfig {
     return defaultMode;
   }
 
+  /**
+   * Which requests the interceptor uses an inserted tape for. Scoping tapes to threads allows tests
+   * running in parallel to share a client.
+   */
+  public TapeScope getTapeScope() {
+    return tapeScope;
+  }
+
   public MatchRule getDefaultMatchRule() {
     return defaultMatchRule;
   }
@@ -73,17 +137,29 @@ public class OkReplayConfig {
   /**
    * Hosts that are ignored by okreplay. Any connections made will be allowed to proceed
    * normally and not be intercepted.
+   * <p>
+   * Besides host names and addresses, entries can be wildcards like `*.example.com`, matching all
+   * subdomains of `example.com`, or address ranges in CIDR notation like `10.0.0.0/8`.
    */
   public Collection<String> getIgnoreHosts() {
     if (isIgnoreLocalhost()) {
-      Set<String> set = new LinkedHashSet<>(ignoreHosts);
-      set.addAll(Network.getLocalAddresses());
-      return Collections.unmodifiableSet(set);
+      return Collections.unmodifiableSet(concat(ignoreHosts, Network.getLocalAddresses()));
     } else {
       return ignoreHosts;
     }
   }
 
+  private static Set<String> concat(Collection<String> hosts, Collection<String> more) {
+    Set<String> set = new LinkedHashSet<>(hosts);
+    set.addAll(more);
+    return set;
+  }
+
+  /** The {@link #getIgnoreHosts() ignored hosts}, compiled when the configuration was built. */
+  HostMatcher getIgnoredHostMatcher() {
+    return ignoredHostMatcher;
+  }
+
   /**
    * If `true` then all connections to localhost addresses are ignored.
    * <p>
@@ -100,6 +176,22 @@ public class OkReplayConfig {
     return interceptor;
   }
 
+  /**
+   * Receives the events of recorders using this configuration. By default events are logged with a
+   * {@link LoggingEventListener}.
+   */
+  public OkReplayEventListener getEventListener() {
+    return eventListener;
+  }
+
+  /**
+   * Collects metrics of the tapes used by recorders with this configuration, or `null` if metrics
+   * aren't collected, which is the default.
+   */
+  public OkReplayMetrics getMetrics() {
+    return metrics;
+  }
+
   /**
    * If set to true add support for proxying SSL (disable certificate
    * checking).
@@ -108,6 +200,42 @@ public class OkReplayConfig {
     return sslEnabled;
   }
 
+  /**
+   * If `true`, the bodies of responses being recorded are passed on to the caller while they are
+   * downloaded, instead of after downloading them completely. The interaction is recorded once the
+   * caller has read or closed the body, so responses whose body is left open aren't recorded.
+   * The recorded copy of the body is still held in memory.
+   */
+  public boolean isStreamRecording() {
+    return streamRecording;
+  }
+
+  /**
+   * If `true`, interactions are recorded to the tape on a background thread instead of the thread
+   * making the request. Stopping the recorder waits for pending recordings before writing the
+   * tape. A request repeated before its first recording is made is recorded again.
+   */
+  public boolean isAsyncRecording() {
+    return asyncRecording;
+  }
+
+  /**
+   * If `true`, stopping a recorder hands its tape to a background thread to be written instead of
+   * writing it before returning. Starting a recorder with the tape waits for the write, and tapes
+   * still being written are flushed when the JVM shuts down.
+   */
+  public boolean isWriteBehind() {
+    return writeBehind;
+  }
+
+  /**
+   * If `true`, starting a recorder inserts a stand-in for its tape, which is only loaded once a
+   * request is made with it. The mode and match rule still take effect immediately.
+   */
+  public boolean isLazyTapeLoading() {
+    return lazyTapeLoading;
+  }
+
   /**
    * Called by the `Recorder` instance so that the configuration can add listeners.
    * <p>
@@ -119,14 +247,25 @@ public class OkReplayConfig {
 
   public static class Builder {
     TapeRoot tapeRoot = new DefaultTapeRoot(new File(OkReplayConfig.DEFAULT_TAPE_ROOT));
+    TapeFormat tapeFormat = TapeFormat.YAML;
+    int bodyStoreThreshold = -1;
+    long tapeCacheSize = OkReplayConfig.DEFAULT_TAPE_CACHE_SIZE;
     TapeMode defaultMode = OkReplayConfig.DEFAULT_MODE;
+    TapeScope tapeScope = TapeScope.GLOBAL;
     MatchRule defaultMatchRule = OkReplayConfig.DEFAULT_MATCH_RULE;
     List<String> ignoreHosts = Collections.emptyList();
     boolean ignoreLocalhost;
     boolean sslEnabled;
+    boolean streamRecording;
+    boolean asyncRecording;
+    boolean writeBehind;
+    boolean lazyTapeLoading;
     OkReplayInterceptor interceptor;
+    List<OkReplayEventListener> eventListeners = new ArrayList<>();
+    OkReplayMetrics metrics;
 
     public Builder() {
+      eventListeners.add(new LoggingEventListener());
       try {
         URL propertiesFile = OkReplayConfig.class.getResource("/okreplay.properties");
         if (propertiesFile != null) {
@@ -144,10 +283,26 @@ public class OkReplayConfig {
         tapeRoot(new File(properties.getProperty("okreplay.tapeRoot")));
       }
 
+      if (properties.containsKey("okreplay.tapeFormat")) {
+        tapeFormat(TapeFormat.valueOf(properties.getProperty("okreplay.tapeFormat")));
+      }
+
+      if (properties.containsKey("okreplay.bodyStoreThreshold")) {
+        bodyStoreThreshold(TypedProperties.getInteger(properties, "okreplay.bodyStoreThreshold"));
+      }
+
+      if (properties.containsKey("okreplay.tapeCacheSize")) {
+        tapeCacheSize(Long.parseLong(properties.getProperty("okreplay.tapeCacheSize")));
+      }
+
       if (properties.containsKey("okreplay.defaultMode")) {
         defaultMode(TapeMode.valueOf(properties.getProperty("okreplay.defaultMode")));
       }
 
+      if (properties.containsKey("okreplay.tapeScope")) {
+        tapeScope(TapeScope.valueOf(properties.getProperty("okreplay.tapeScope")));
+      }
+
       if (properties.containsKey("okreplay.defaultMatchRules")) {
         String property = properties.getProperty("okreplay.defaultMatchRules");
         List<MatchRule> rules = new ArrayList<>();
@@ -169,6 +324,22 @@ public class OkReplayConfig {
         sslEnabled(TypedProperties.getBoolean(properties, "okreplay.sslEnabled"));
       }
 
+      if (properties.containsKey("okreplay.streamRecording")) {
+        streamRecording(TypedProperties.getBoolean(properties, "okreplay.streamRecording"));
+      }
+
+      if (properties.containsKey("okreplay.asyncRecording")) {
+        asyncRecording(TypedProperties.getBoolean(properties, "okreplay.asyncRecording"));
+      }
+
+      if (properties.containsKey("okreplay.writeBehind")) {
+        writeBehind(TypedProperties.getBoolean(properties, "okreplay.writeBehind"));
+      }
+
+      if (properties.containsKey("okreplay.lazyTapeLoading")) {
+        lazyTapeLoading(TypedProperties.getBoolean(properties, "okreplay.lazyTapeLoading"));
+      }
+
       return this;
     }
 
@@ -181,16 +352,53 @@ public class OkReplayConfig {
       return this;
     }
 
+    public Builder tapeFormat(TapeFormat tapeFormat) {
+      this.tapeFormat = tapeFormat;
+      return this;
+    }
+
+    public Builder bodyStoreThreshold(int bodyStoreThreshold) {
+      this.bodyStoreThreshold = bodyStoreThreshold;
+      return this;
+    }
+
+    public Builder tapeCacheSize(long tapeCacheSize) {
+      this.tapeCacheSize = tapeCacheSize;
+      return this;
+    }
+
     public Builder defaultMode(TapeMode defaultMode) {
       this.defaultMode = defaultMode;
       return this;
     }
 
+    public Builder tapeScope(TapeScope tapeScope) {
+      this.tapeScope = tapeScope;
+      return this;
+    }
+
     public Builder interceptor(OkReplayInterceptor interceptor) {
       this.interceptor = interceptor;
       return this;
     }
 
+    /** Adds a listener for events, in addition to the default logging. */
+    public Builder addEventListener(OkReplayEventListener eventListener) {
+      this.eventListeners.add(eventListener);
+      return this;
+    }
+
+    /** Replaces the event listeners, including the default logging. */
+    public Builder eventListeners(Collection<OkReplayEventListener> eventListeners) {
+      this.eventListeners = new ArrayList<>(eventListeners);
+      return this;
+    }
+
+    public Builder metrics(OkReplayMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
     public Builder defaultMatchRule(MatchRule defaultMatchRule) {
       this.defaultMatchRule = defaultMatchRule;
       return this;
@@ -216,6 +424,26 @@ public class OkReplayConfig {
       return this;
     }
 
+    public Builder streamRecording(boolean streamRecording) {
+      this.streamRecording = streamRecording;
+      return this;
+    }
+
+    public Builder asyncRecording(boolean asyncRecording) {
+      this.asyncRecording = asyncRecording;
+      return this;
+    }
+
+    public Builder writeBehind(boolean writeBehind) {
+      this.writeBehind = writeBehind;
+      return this;
+    }
+
+    public Builder lazyTapeLoading(boolean lazyTapeLoading) {
+      this.lazyTapeLoading = lazyTapeLoading;
+      return this;
+    }
+
     public OkReplayConfig build() {
       return new OkReplayConfig(this);
     }
@@ -0,0 +1,100 @@
+package okreplay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives events about the tapes used by recorders and the requests intercepted with them, e.g.
+ * to log them or collect metrics. Durations are in nanoseconds.
+ * <p>
+ * Listeners are registered with {@link OkReplayConfig.Builder#addEventListener}. All methods do
+ * nothing by default, and are called on the thread that loads the tape or makes the request, so
+ * they should return quickly. If no listener is registered, events aren't even timed.
+ */
+public abstract class OkReplayEventListener {
+  public static final OkReplayEventListener NONE = new OkReplayEventListener() {
+  };
+
+  /** {@code tape} was loaded from {@code fileName}, or created if the file doesn't exist. */
+  public void tapeLoaded(Tape tape, String fileName, long tookNanos) {
+  }
+
+  /** A response to {@code request} was found on {@code tape} and is played back. */
+  public void requestMatched(Tape tape, Request request, long tookNanos) {
+  }
+
+  /** No response to {@code request} was found on {@code tape}. */
+  public void requestMissed(Tape tape, Request request, long tookNanos) {
+  }
+
+  /** The response to {@code request} was recorded to {@code tape}. */
+  public void interactionRecorded(Tape tape, Request request, long tookNanos) {
+  }
+
+  /**
+   * The response to {@code request} was not recorded to {@code tape}, as it only completed after
+   * the recorder was stopped, e.g. a streamed response body that was read to the end afterwards.
+   */
+  public void interactionDropped(Tape tape, Request request) {
+  }
+
+  /** {@code tape} had changes and was written to {@code fileName}. */
+  public void tapeWritten(Tape tape, String fileName, long tookNanos) {
+  }
+
+  /** @return a listener passing events on to all of {@code listeners}. */
+  static OkReplayEventListener of(List<OkReplayEventListener> listeners) {
+    switch (listeners.size()) {
+      case 0:
+        return NONE;
+      case 1:
+        return listeners.get(0);
+      default:
+        return new Composite(new ArrayList<>(listeners));
+    }
+  }
+
+  private static final class Composite extends OkReplayEventListener {
+    private final List<OkReplayEventListener> listeners;
+
+    Composite(List<OkReplayEventListener> listeners) {
+      this.listeners = listeners;
+    }
+
+    @Override public void tapeLoaded(Tape tape, String fileName, long tookNanos) {
+      for (OkReplayEventListener listener : listeners) {
+        listener.tapeLoaded(tape, fileName, tookNanos);
+      }
+    }
+
+    @Override public void requestMatched(Tape tape, Request request, long tookNanos) {
+      for (OkReplayEventListener listener : listeners) {
+        listener.requestMatched(tape, request, tookNanos);
+      }
+    }
+
+    @Override public void requestMissed(Tape tape, Request request, long tookNanos) {
+      for (OkReplayEventListener listener : listeners) {
+        listener.requestMissed(tape, request, tookNanos);
+      }
+    }
+
+    @Override public void interactionRecorded(Tape tape, Request request, long tookNanos) {
+      for (OkReplayEventListener listener : listeners) {
+        listener.interactionRecorded(tape, request, tookNanos);
+      }
+    }
+
+    @Override public void interactionDropped(Tape tape, Request request) {
+      for (OkReplayEventListener listener : listeners) {
+        listener.interactionDropped(tape, request);
+      }
+    }
+
+    @Override public void tapeWritten(Tape tape, String fileName, long tookNanos) {
+      for (OkReplayEventListener listener : listeners) {
+        listener.tapeWritten(tape, fileName, tookNanos);
+      }
+    }
+  }
+}
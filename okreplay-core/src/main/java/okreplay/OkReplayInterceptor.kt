@@ -1,33 +1,45 @@
 package okreplay
 
 import java.io.IOException
-import java.util.logging.Logger
+import java.util.concurrent.ConcurrentHashMap
 
 import okhttp3.Interceptor
 import okhttp3.MediaType
 import okhttp3.Protocol
 import okhttp3.ResponseBody
+import okio.Buffer
 
 import okreplay.Util.VIA
 
+/**
+ * Plays back and records the requests of the client it is installed in. Each started [Recorder]
+ * starts a session with its tape, which is used for requests according to the [TapeScope] of its
+ * configuration. Requests without a session proceed normally.
+ */
 class OkReplayInterceptor : Interceptor {
-  private var configuration: OkReplayConfig? = null
-  private var tape: Tape? = null
-  private var isRunning: Boolean = false
+  /** The session of a recorder with [TapeScope.GLOBAL]. */
+  @Volatile private var globalSession: Session? = null
+  private val threadSession = ThreadLocal<Session>()
+  private val inheritableSession = InheritableThreadLocal<Session>()
+  /** Started sessions by tape, for requests tagged with one. */
+  private val tapeSessions = ConcurrentHashMap<Tape, Session>()
 
   @Throws(IOException::class) override fun intercept(chain: Interceptor.Chain): okhttp3.Response {
     val request = chain.request()
-    if (isRunning && !isHostIgnored(request)) {
-      if (tape == null) {
+    val session = sessionFor(request)
+    if (session != null && !isHostIgnored(session, request)) {
+      if (session.tape == null) {
         return buildResponse(request, 403, "No tape")
       } else {
-        val tape = this.tape!!
+        val tape = session.tape
         val recordedRequest = OkHttpRequestAdapter.adapt(request)
-        if (tape.isReadable && tape.seek(recordedRequest)) {
-          return replayResponse(request, tape, recordedRequest)
+        val started = session.nanoTime()
+        val recordedResponse = if (tape.isReadable) seekAndPlay(tape, recordedRequest) else null
+        if (recordedResponse != null) {
+          session.events.requestMatched(tape, recordedRequest, session.nanoTime() - started)
+          return replayResponse(request, recordedResponse)
         } else {
-          LOG.warning("no matching request found on tape '${tape.name}' for " +
-              "request ${request.method()} ${request.url()}")
+          session.events.requestMissed(tape, recordedRequest, session.nanoTime() - started)
           if (tape.mode == TapeMode.READ_ONLY_QUIET) {
             return buildResponse(request, 404, "No matching response")
           }
@@ -37,7 +49,7 @@ class OkReplayInterceptor : Interceptor {
             throwTapeNotWritable(request.method() + " " + request.url().toString())
           }
           // Continue the request and attempt to write the response to the tape.
-          return recordResponse(request, tape, recordedRequest, chain.proceed(request))
+          return recordResponse(request, session, recordedRequest, chain.proceed(request))
         }
       }
     } else {
@@ -45,14 +57,18 @@ class OkReplayInterceptor : Interceptor {
     }
   }
 
+  /** Matches [request] once on the tapes of this package, and with seek and play on others. */
+  private fun seekAndPlay(tape: Tape, request: Request): Response? {
+    if (tape is SeekAndPlayTape) {
+      return tape.seekAndPlay(request)
+    }
+    return if (tape.seek(request)) tape.play(request) else null
+  }
+
   private fun replayResponse(
       request: okhttp3.Request,
-      tape: Tape,
-      recordedRequest: Request
+      recordedResponse: Response
   ): okhttp3.Response {
-    LOG.info(String.format("Playing back request %s %s from tape '%s'",
-        recordedRequest.method(), recordedRequest.url().toString(), tape.name))
-    val recordedResponse = tape.play(recordedRequest)
     var okhttpResponse = OkHttpResponseAdapter.adapt(request, recordedResponse)
     okhttpResponse = setOkReplayHeader(okhttpResponse, "PLAY")
     okhttpResponse = setViaHeader(okhttpResponse)
@@ -61,17 +77,26 @@ class OkReplayInterceptor : Interceptor {
 
   private fun recordResponse(
       request: okhttp3.Request,
-      tape: Tape,
+      session: Session,
       recordedRequest: Request,
       okhttpResponse: okhttp3.Response
   ): okhttp3.Response {
     var okhttpResponse = okhttpResponse
     okhttpResponse = setOkReplayHeader(okhttpResponse, "REC")
     okhttpResponse = setViaHeader(okhttpResponse)
-    LOG.info("Recording request ${request.method()} ${request.url()} to tape '${tape.name}'")
+    if (session.streamRecording) {
+      val response = okhttpResponse
+      val body = response.body()!!
+      val recordingBody = RecordingResponseBody(body, object : RecordingResponseBody.Callback {
+        override fun onComplete(copy: Buffer) {
+          record(session, recordedRequest, response,
+              ResponseBody.create(body.contentType(), copy.size(), copy))
+        }
+      })
+      return okhttpResponse.newBuilder().body(recordingBody).build()
+    }
     val bodyClone = OkHttpResponseAdapter.cloneResponseBody(okhttpResponse.body()!!)
-    val recordedResponse = OkHttpResponseAdapter.adapt(okhttpResponse, bodyClone)
-    tape.record(recordedRequest, recordedResponse)
+    record(session, recordedRequest, okhttpResponse, bodyClone)
     okhttpResponse = okhttpResponse.newBuilder()
         .body(OkHttpResponseAdapter.cloneResponseBody(okhttpResponse.body()!!))
         .build()
@@ -79,6 +104,40 @@ class OkReplayInterceptor : Interceptor {
     return okhttpResponse
   }
 
+  private fun record(
+      session: Session,
+      recordedRequest: Request,
+      okhttpResponse: okhttp3.Response,
+      body: ResponseBody
+  ) {
+    val recordings = session.recordings
+    // Responses completing after the session ended, e.g. streamed bodies read to the end later,
+    // are no longer recorded as the tape may already be written.
+    val recorded = if (recordings != null) {
+      recordings.submit(Runnable { recordNow(session, recordedRequest, okhttpResponse, body) })
+    } else if (session.isActive) {
+      recordNow(session, recordedRequest, okhttpResponse, body)
+      true
+    } else {
+      false
+    }
+    if (!recorded) {
+      session.events.interactionDropped(session.tape, recordedRequest)
+    }
+  }
+
+  private fun recordNow(
+      session: Session,
+      recordedRequest: Request,
+      okhttpResponse: okhttp3.Response,
+      body: ResponseBody
+  ) {
+    val recordedResponse = OkHttpResponseAdapter.adapt(okhttpResponse, body)
+    val started = session.nanoTime()
+    session.tape!!.record(recordedRequest, recordedResponse)
+    session.events.interactionRecorded(session.tape, recordedRequest, session.nanoTime() - started)
+  }
+
   private fun buildResponse(
       request: okhttp3.Request,
       code: Int,
@@ -112,8 +171,57 @@ class OkReplayInterceptor : Interceptor {
         + "================================================================================\n")
   }
 
-  private fun isHostIgnored(request: okhttp3.Request): Boolean {
-    return configuration!!.ignoreHosts.contains(request.url().host())
+  private fun isHostIgnored(session: Session, request: okhttp3.Request): Boolean {
+    return session.ignoredHosts.matches(request.url().host())
+  }
+
+  /**
+   * The session for a request: the one of the tape it is tagged with, or else the one started on
+   * this thread, or else the global one.
+   */
+  private fun sessionFor(request: okhttp3.Request): Session? {
+    val tape = request.tag(Tape::class.java)
+    if (tape != null) {
+      val session = tapeSessions[tape]
+      if (session != null && session.isActive) {
+        return session
+      }
+    }
+    return currentSession()
+  }
+
+  private fun currentSession(): Session? {
+    return active(threadSession)
+        ?: active(inheritableSession)
+        ?: globalSession?.takeIf { it.isActive }
+  }
+
+  /** Returns the active session of [local], removing a stopped one. */
+  private fun active(local: ThreadLocal<Session>): Session? {
+    val session = local.get() ?: return null
+    if (!session.isActive) {
+      local.remove()
+      return null
+    }
+    return session
+  }
+
+  /**
+   * Ends [session], which is removed from this thread if it was started here. Other threads drop
+   * it the next time they look for their session.
+   */
+  private fun end(session: Session) {
+    session.isActive = false
+    if (session.tape != null) {
+      tapeSessions.remove(session.tape, session)
+    }
+    if (threadSession.get() === session) {
+      threadSession.remove()
+    }
+    if (inheritableSession.get() === session) {
+      inheritableSession.remove()
+    }
+    session.recordings?.drain()
   }
 
   private fun setViaHeader(response: okhttp3.Response): okhttp3.Response {
@@ -128,17 +236,65 @@ class OkReplayInterceptor : Interceptor {
         .build()
   }
 
+  /**
+   * Starts a session using [tape] for the requests in the [TapeScope] of [configuration]. A
+   * session previously started in the same scope, e.g. on the same thread, is stopped.
+   */
   fun start(configuration: OkReplayConfig, tape: Tape?) {
-    this.configuration = configuration
-    this.tape = tape
-    isRunning = true
+    val session = Session(configuration, tape)
+    val previous = when (configuration.tapeScope) {
+      TapeScope.THREAD -> threadSession.get().also { threadSession.set(session) }
+      TapeScope.INHERITABLE_THREAD ->
+        inheritableSession.get().also { inheritableSession.set(session) }
+      else -> globalSession.also { globalSession = session }
+    }
+    if (previous != null) {
+      end(previous)
+    }
+    if (tape != null) {
+      tapeSessions[tape] = session
+    }
   }
 
+  /**
+   * The metrics of the session used for requests made on this thread, if its configuration
+   * collects them.
+   */
+  fun metrics(): OkReplayMetrics? = currentSession()?.metrics
+
+  /**
+   * Stops the session used for requests made on this thread, waiting for its pending recordings
+   * to be made.
+   */
   fun stop() {
-    isRunning = false
+    val session = currentSession()
+    if (session != null) {
+      end(session)
+    }
   }
 
-  companion object {
-    private val LOG = Logger.getLogger(OkReplayInterceptor::class.java.name)
+  /**
+   * Stops the session of [tape], wherever it was started, waiting for its pending recordings to be
+   * made. Thread scoped sessions are removed from other threads the next time they make a request.
+   */
+  fun stop(tape: Tape) {
+    val session = tapeSessions[tape]
+    if (session != null) {
+      end(session)
+    }
+  }
+
+  private class Session(configuration: OkReplayConfig, val tape: Tape?) {
+    val ignoredHosts: HostMatcher = configuration.ignoredHostMatcher
+    val events: OkReplayEventListener = configuration.eventListener
+    val metrics: OkReplayMetrics? = configuration.metrics
+    val streamRecording = configuration.isStreamRecording
+    /** Records interactions off the calling threads, if the configuration asks for it. */
+    val recordings =
+        if (configuration.isAsyncRecording && tape != null) RecordingQueue(tape.name) else null
+    @Volatile var isActive = true
+
+    /** The current time, or 0 if nobody listens for events and durations are never needed. */
+    fun nanoTime(): Long = if (events === OkReplayEventListener.NONE) 0L else System.nanoTime()
   }
 }
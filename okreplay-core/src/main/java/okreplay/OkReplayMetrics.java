@@ -0,0 +1,181 @@
+package okreplay;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the requests played back, missed and recorded with each tape, and records how long
+ * tapes take to load and write and how long requests take to match and record. Matching includes
+ * reading the response to play back from the tape.
+ * <p>
+ * Metrics are collected without locking while recorders are running. Tests can assert on a
+ * {@link #snapshot(String)} to catch tapes or match rules that make matching slow. For example:
+ * <p>
+ * [source,java]
+ * ----
+ * OkReplayMetrics metrics = new OkReplayMetrics();
+ * OkReplayConfig configuration = new OkReplayConfig.Builder()
+ * .metrics(metrics)
+ * .build();
+ * ----
+ */
+public final class OkReplayMetrics extends OkReplayEventListener {
+  private final ConcurrentMap<String, TapeMetrics> tapes = new ConcurrentHashMap<>();
+
+  /** @return the metrics of the tape named {@code tapeName}, or {@code null} if it wasn't used. */
+  public Snapshot snapshot(String tapeName) {
+    TapeMetrics metrics = tapes.get(tapeName);
+    return metrics != null ? metrics.snapshot(tapeName) : null;
+  }
+
+  /** @return the metrics of all tapes used so far, by tape name. */
+  public Map<String, Snapshot> snapshot() {
+    Map<String, Snapshot> snapshot = new LinkedHashMap<>();
+    for (Map.Entry<String, TapeMetrics> entry : tapes.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+    }
+    return Collections.unmodifiableMap(snapshot);
+  }
+
+  /** Discards the metrics collected so far. */
+  public void reset() {
+    tapes.clear();
+  }
+
+  @Override public void tapeLoaded(Tape tape, String fileName, long tookNanos) {
+    TapeMetrics metrics = metrics(tape);
+    metrics.load.record(tookNanos);
+    metrics.interactions.set(tape.size());
+  }
+
+  @Override public void requestMatched(Tape tape, Request request, long tookNanos) {
+    TapeMetrics metrics = metrics(tape);
+    metrics.played.incrementAndGet();
+    metrics.match.record(tookNanos);
+  }
+
+  @Override public void requestMissed(Tape tape, Request request, long tookNanos) {
+    TapeMetrics metrics = metrics(tape);
+    metrics.missed.incrementAndGet();
+    metrics.match.record(tookNanos);
+  }
+
+  @Override public void interactionRecorded(Tape tape, Request request, long tookNanos) {
+    TapeMetrics metrics = metrics(tape);
+    metrics.recorded.incrementAndGet();
+    metrics.record.record(tookNanos);
+    metrics.interactions.set(tape.size());
+  }
+
+  @Override public void tapeWritten(Tape tape, String fileName, long tookNanos) {
+    TapeMetrics metrics = metrics(tape);
+    metrics.write.record(tookNanos);
+    metrics.interactions.set(tape.size());
+  }
+
+  private TapeMetrics metrics(Tape tape) {
+    TapeMetrics metrics = tapes.get(tape.getName());
+    if (metrics == null) {
+      TapeMetrics created = new TapeMetrics();
+      metrics = tapes.putIfAbsent(tape.getName(), created);
+      if (metrics == null) {
+        metrics = created;
+      }
+    }
+    return metrics;
+  }
+
+  private static final class TapeMetrics {
+    final AtomicLong played = new AtomicLong();
+    final AtomicLong missed = new AtomicLong();
+    final AtomicLong recorded = new AtomicLong();
+    final AtomicLong interactions = new AtomicLong();
+    final LatencyHistogram load = new LatencyHistogram();
+    final LatencyHistogram match = new LatencyHistogram();
+    final LatencyHistogram record = new LatencyHistogram();
+    final LatencyHistogram write = new LatencyHistogram();
+
+    Snapshot snapshot(String tapeName) {
+      return new Snapshot(tapeName, played.get(), missed.get(), recorded.get(),
+          interactions.get(), load.snapshot(), match.snapshot(), record.snapshot(),
+          write.snapshot());
+    }
+  }
+
+  /** The metrics of a tape at some point. */
+  public static final class Snapshot {
+    private final String tapeName;
+    private final long played;
+    private final long missed;
+    private final long recorded;
+    private final long interactions;
+    private final LatencyHistogram.Snapshot load;
+    private final LatencyHistogram.Snapshot match;
+    private final LatencyHistogram.Snapshot record;
+    private final LatencyHistogram.Snapshot write;
+
+    Snapshot(String tapeName, long played, long missed, long recorded, long interactions,
+        LatencyHistogram.Snapshot load, LatencyHistogram.Snapshot match,
+        LatencyHistogram.Snapshot record, LatencyHistogram.Snapshot write) {
+      this.tapeName = tapeName;
+      this.played = played;
+      this.missed = missed;
+      this.recorded = recorded;
+      this.interactions = interactions;
+      this.load = load;
+      this.match = match;
+      this.record = record;
+      this.write = write;
+    }
+
+    public String tapeName() {
+      return tapeName;
+    }
+
+    /** The number of requests played back from the tape. */
+    public long played() {
+      return played;
+    }
+
+    /** The number of requests that had no match on the tape, whether recorded afterwards or not. */
+    public long missed() {
+      return missed;
+    }
+
+    public long recorded() {
+      return recorded;
+    }
+
+    /** The number of interactions on the tape when it was last loaded, recorded to or written. */
+    public long interactions() {
+      return interactions;
+    }
+
+    public LatencyHistogram.Snapshot load() {
+      return load;
+    }
+
+    /** Durations of looking up requests on the tape, including misses. */
+    public LatencyHistogram.Snapshot match() {
+      return match;
+    }
+
+    public LatencyHistogram.Snapshot record() {
+      return record;
+    }
+
+    public LatencyHistogram.Snapshot write() {
+      return write;
+    }
+
+    @Override public String toString() {
+      return String.format("Tape[%s]: played=%d, missed=%d, recorded=%d, interactions=%d, "
+              + "load={%s}, match={%s}, record={%s}, write={%s}", tapeName, played, missed,
+          recorded, interactions, load, match, record, write);
+    }
+  }
+}
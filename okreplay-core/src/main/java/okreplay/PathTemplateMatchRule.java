@@ -0,0 +1,230 @@
+package okreplay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Matches requests to the same host whose paths match the same template, or are equal if they
+ * match none. Templates are paths whose segments may be:
+ * <ul>
+ * <li>{@code {name}}, which matches any segment,</li>
+ * <li>{@code {name:regex}}, which matches segments matching the regular expression,</li>
+ * <li>a glob like {@code *.json} or {@code v?}, which matches segments like a file name,</li>
+ * <li>{@code **} at the end, which matches any remaining segments.</li>
+ * </ul>
+ * For example:
+ * <p>
+ * [source,java]
+ * ----
+ * MatchRule rule = ComposedMatchRule.of(MatchRules.method,
+ * PathTemplateMatchRule.of("/users/{id}", "/users/{id}/orders/{order:[0-9]+}", "/static/**"));
+ * ----
+ * <p>
+ * The templates are compiled into a trie of path segments, so finding the template of a path
+ * doesn't depend on the number of templates. Exact segments take precedence over patterns, which
+ * take precedence over wildcards. As the template is the key of a request, tapes only compare a
+ * request with the recordings matching the same template, however many interactions they hold.
+ */
+public final class PathTemplateMatchRule implements KeyedMatchRule, CostedMatchRule {
+  private static final String TAIL = "**";
+  private final Set<String> templates;
+  private final Node root = new Node();
+  private final RequestView.Derivation templateKey = new RequestView.Derivation() {
+    @Override public String derive(Request request) {
+      return templateKey(request);
+    }
+  };
+
+  private PathTemplateMatchRule(Set<String> templates) {
+    this.templates = Collections.unmodifiableSet(templates);
+    for (String template : templates) {
+      add(template);
+    }
+  }
+
+  /** @throws IllegalArgumentException if a template is invalid. */
+  public static PathTemplateMatchRule of(String... templates) {
+    return new PathTemplateMatchRule(new LinkedHashSet<>(Arrays.asList(templates)));
+  }
+
+  public Set<String> templates() {
+    return templates;
+  }
+
+  @Override public boolean isMatch(Request a, Request b) {
+    return key(a).equals(key(b));
+  }
+
+  @Override public String key(Request request) {
+    return RequestView.of(request).derivedKey(this, templateKey);
+  }
+
+  @Override public int cost() {
+    return 45;
+  }
+
+  /** @return the template matching {@code path}, or {@code null} if none does. */
+  String templateOf(String path) {
+    return resolve(root, segments(path), 0);
+  }
+
+  private String templateKey(Request request) {
+    RequestView view = RequestView.of(request);
+    String template = templateOf(view.path);
+    return template != null
+        ? view.host + " template " + template : view.host + " path " + view.path;
+  }
+
+  private void add(String template) {
+    String[] segments = segments(template);
+    Node node = root;
+    for (int i = 0; i < segments.length; i++) {
+      String segment = segments[i];
+      if (segment.equals(TAIL)) {
+        if (i != segments.length - 1) {
+          throw new IllegalArgumentException(
+              "** must be the last segment of template " + template);
+        }
+        if (node.tailTemplate == null) {
+          node.tailTemplate = template;
+        }
+        return;
+      }
+      node = node.child(segment);
+    }
+    if (node.template == null) {
+      node.template = template;
+    }
+  }
+
+  private static String resolve(Node node, String[] segments, int index) {
+    if (index == segments.length) {
+      return node.template != null ? node.template : node.tailTemplate;
+    }
+    String segment = segments[index];
+    Node exact = node.exact.get(segment);
+    if (exact != null) {
+      String template = resolve(exact, segments, index + 1);
+      if (template != null) {
+        return template;
+      }
+    }
+    for (PatternNode pattern : node.patterns) {
+      if (pattern.pattern.matcher(segment).matches()) {
+        String template = resolve(pattern, segments, index + 1);
+        if (template != null) {
+          return template;
+        }
+      }
+    }
+    if (node.wildcard != null) {
+      String template = resolve(node.wildcard, segments, index + 1);
+      if (template != null) {
+        return template;
+      }
+    }
+    return node.tailTemplate;
+  }
+
+  private static String[] segments(String path) {
+    return (path.startsWith("/") ? path.substring(1) : path).split("/", -1);
+  }
+
+  @Override public int hashCode() {
+    return templates.hashCode();
+  }
+
+  @Override public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+
+    PathTemplateMatchRule that = (PathTemplateMatchRule) o;
+
+    return templates.equals(that.templates);
+  }
+
+  /** A segment shared by templates that start with the same segments. */
+  private static class Node {
+    final Map<String, Node> exact = new HashMap<>();
+    /** In the order they were given, as the first one leading to a template is used. */
+    final List<PatternNode> patterns = new ArrayList<>();
+    Node wildcard;
+    /** The template ending with this segment. */
+    String template;
+    /** The template ending with {@code **} after this segment. */
+    String tailTemplate;
+
+    Node child(String segment) {
+      if (segment.startsWith("{") && segment.endsWith("}")) {
+        int colon = segment.indexOf(':');
+        if (colon == -1) {
+          if (wildcard == null) {
+            wildcard = new Node();
+          }
+          return wildcard;
+        }
+        return patternChild(segment.substring(colon + 1, segment.length() - 1));
+      } else if (segment.indexOf('*') != -1 || segment.indexOf('?') != -1) {
+        return patternChild(glob(segment));
+      }
+      Node child = exact.get(segment);
+      if (child == null) {
+        child = new Node();
+        exact.put(segment, child);
+      }
+      return child;
+    }
+
+    private Node patternChild(String regex) {
+      for (PatternNode pattern : patterns) {
+        if (pattern.pattern.pattern().equals(regex)) {
+          return pattern;
+        }
+      }
+      PatternNode child = new PatternNode(Pattern.compile(regex));
+      patterns.add(child);
+      return child;
+    }
+
+    private static String glob(String segment) {
+      StringBuilder regex = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      for (int i = 0; i < segment.length(); i++) {
+        char c = segment.charAt(i);
+        if (c == '*' || c == '?') {
+          if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+          }
+          regex.append(c == '*' ? ".*" : ".");
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        regex.append(Pattern.quote(literal.toString()));
+      }
+      return regex.toString();
+    }
+  }
+
+  /** A segment matching a regular expression. */
+  private static final class PatternNode extends Node {
+    final Pattern pattern;
+
+    PatternNode(Pattern pattern) {
+      this.pattern = pattern;
+    }
+  }
+}
@@ -4,22 +4,27 @@ public class ProxyServer implements RecorderListener {
   private final OkReplayConfig configuration;
   private final OkReplayInterceptor interceptor;
   private boolean running;
+  private Tape tape;
 
   public ProxyServer(OkReplayConfig configuration, OkReplayInterceptor interceptor) {
     this.configuration = configuration;
     this.interceptor = interceptor;
   }
 
-  @Override public void onRecorderStart(Tape tape) {
-    if (!isRunning()) {
-      start(tape);
-    }
+  /**
+   * Does nothing, as the recorder starts its own session on the interceptor.
+   *
+   * @deprecated start a session with {@link #start(Tape)} instead.
+   */
+  @Deprecated @Override public void onRecorderStart(Tape tape) {
   }
 
-  @Override public void onRecorderStop() {
-    if (isRunning()) {
-      stop();
-    }
+  /**
+   * Does nothing, as the recorder stops its own session on the interceptor.
+   *
+   * @deprecated stop the session with {@link #stop()} instead.
+   */
+  @Deprecated @Override public void onRecorderStop() {
   }
 
   private boolean isRunning() {
@@ -31,6 +36,7 @@ public class ProxyServer implements RecorderListener {
       throw new IllegalStateException("OkReplay proxy server is already running");
     }
     interceptor.start(configuration, tape);
+    this.tape = tape;
     running = true;
   }
 
@@ -38,7 +44,14 @@ public class ProxyServer implements RecorderListener {
     if (!isRunning()) {
       throw new IllegalStateException("OkReplay proxy server is already stopped");
     }
-    interceptor.stop();
+    // Stops the session started here rather than whichever is current on the calling thread,
+    // unless there is no tape to find it by.
+    if (tape != null) {
+      interceptor.stop(tape);
+    } else {
+      interceptor.stop();
+    }
+    tape = null;
     running = false;
   }
 }
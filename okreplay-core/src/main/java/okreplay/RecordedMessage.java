@@ -10,14 +10,21 @@ import okhttp3.MediaType;
 abstract class RecordedMessage extends AbstractMessage {
   final Headers headers;
   final byte[] body;
+  /** Set instead of {@link #body} if the body is not held in memory. */
+  final ExternalBody externalBody;
 
   RecordedMessage(Headers headers, byte[] body) {
+    this(headers, body, null);
+  }
+
+  RecordedMessage(Headers headers, byte[] body, ExternalBody externalBody) {
     this.headers = headers;
     this.body = body;
+    this.externalBody = externalBody;
   }
 
   @Override public final boolean hasBody() {
-    return body != null;
+    return body != null || externalBody != null;
   }
 
   @Override public Headers headers() {
@@ -25,7 +32,7 @@ abstract class RecordedMessage extends AbstractMessage {
   }
 
   @Override public byte[] body() {
-    return body;
+    return externalBody != null ? externalBody.bytes() : body;
   }
 
   LinkedHashMap<String, String> headersAsMap() {
@@ -38,7 +45,7 @@ abstract class RecordedMessage extends AbstractMessage {
   }
 
   Object maybeBodyAsString() {
-    if (body == null) {
+    if (!hasBody()) {
       return null;
     } else {
       // Try to determine if the body content type is text
@@ -48,7 +55,7 @@ abstract class RecordedMessage extends AbstractMessage {
       if (mediaType.equals("text") || mediaType.equals("application")) {
         return bodyAsText();
       } else {
-        return body;
+        return body();
       }
     }
   }
@@ -18,6 +18,7 @@ import static okreplay.Util.CONTENT_TYPE;
 class RecordedRequest extends RecordedMessage implements Request {
   private final String method;
   private final HttpUrl url;
+  private volatile RequestView view;
 
   private RecordedRequest(Builder builder) {
     super(builder.headers.build(), builder.body);
@@ -51,6 +52,16 @@ class RecordedRequest extends RecordedMessage implements Request {
     return new Builder(this);
   }
 
+  /** The parts of this request compared by the {@link MatchRules}, parsed on first use. */
+  RequestView view() {
+    RequestView view = this.view;
+    if (view == null) {
+      view = new RequestView(this);
+      this.view = view;
+    }
+    return view;
+  }
+
   @Override public YamlRecordedRequest toYaml() {
     return new YamlRecordedRequest(headersAsMap(), maybeBodyAsString(), method, url.uri());
   }
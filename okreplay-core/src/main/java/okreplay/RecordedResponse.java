@@ -13,7 +13,7 @@ class RecordedResponse extends RecordedMessage implements Response {
   private final Protocol protocol;
 
   private RecordedResponse(Builder builder) {
-    super(builder.headers.build(), builder.body);
+    super(builder.headers.build(), builder.body, builder.externalBody);
     this.code = builder.code;
     this.protocol = builder.protocol;
   }
@@ -45,6 +45,7 @@ class RecordedResponse extends RecordedMessage implements Response {
     private int code = -1;
     private Headers.Builder headers;
     private byte[] body;
+    private ExternalBody externalBody;
 
     Builder() {
       headers = new Headers.Builder();
@@ -54,6 +55,7 @@ class RecordedResponse extends RecordedMessage implements Response {
       this.code = response.code;
       this.headers = response.headers.newBuilder();
       this.body = response.body;
+      this.externalBody = response.externalBody;
       this.protocol = response.protocol;
     }
 
@@ -102,7 +104,18 @@ class RecordedResponse extends RecordedMessage implements Response {
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
-      MediaType contentType = body.contentType();
+      this.externalBody = null;
+      return contentType(body.contentType());
+    }
+
+    /** Uses a body that is only read when it is played back. */
+    Builder body(ExternalBody body, MediaType contentType) {
+      this.body = null;
+      this.externalBody = body;
+      return contentType(contentType);
+    }
+
+    private Builder contentType(MediaType contentType) {
       if (contentType != null && headers.get(Util.CONTENT_TYPE) == null) {
         addHeader(Util.CONTENT_TYPE, contentType.toString());
       }
@@ -1,5 +1,6 @@
 package okreplay
 
+import java.io.File
 import java.util.ArrayList
 
 /**
@@ -12,12 +13,20 @@ open class Recorder(private val configuration: OkReplayConfig) {
   /**
    * The current active _tape_.
    */
-  var tape: Tape? = null
+  @Volatile var tape: Tape? = null
     private set
 
-  /** Not just a property as `tapeRoot` gets changed during constructor.  */
-  private val tapeLoader: TapeLoader<out Tape>
-    get() = YamlTapeLoader(configuration.tapeRoot)
+  /**
+   * The metrics of the tapes used by this recorder and others with the same configuration, if
+   * enabled with [OkReplayConfig.Builder.metrics].
+   */
+  val metrics: OkReplayMetrics?
+    get() = configuration.metrics
+
+  /** Created lazily as `tapeRoot` gets changed during constructor.  */
+  private val tapeLoader: TapeLoader<out Tape> by lazy {
+    configuration.tapeFormat.loader(configuration)
+  }
 
   init {
     configuration.registerListeners(listeners)
@@ -35,7 +44,12 @@ open class Recorder(private val configuration: OkReplayConfig) {
    */
   fun start(tapeName: String, mode: TapeMode?, matchRule: MatchRule?) {
     check(tape == null) { "start called when Recorder is already started" }
-    tape = tapeLoader.loadTape(tapeName)
+    WriteBehind.SHARED.await(tapeFile(tapeName))
+    tape = if (configuration.isLazyTapeLoading) {
+      LazyTape(tapeName, LazyTape.Loader { loadTape(tapeName) })
+    } else {
+      loadTape(tapeName)
+    }
     tape!!.mode = mode ?: configuration.defaultMode
     tape!!.matchRule = matchRule ?: configuration.defaultMatchRule
     configuration.interceptor().start(configuration, tape!!)
@@ -54,17 +68,65 @@ open class Recorder(private val configuration: OkReplayConfig) {
   }
 
   /**
-   * Stops the Recorder and writes its current tape out to a file.
+   * Stops the Recorder and writes its current tape out to a file, or has it written in the
+   * background if [OkReplayConfig.isWriteBehind].
+   *
+   * The Recorder is stopped even if this fails, and the interactions that were recorded are
+   * written even if recording others in the background failed.
    *
-   * @throws IllegalStateException if the Recorder is not started.
+   * @throws IllegalStateException if the Recorder is not started, or if an interaction failed to
+   * be recorded.
    */
   fun stop() {
-    checkNotNull(tape) { "stop called when Recorder is not started" }
+    val stopped = checkNotNull(tape) { "stop called when Recorder is not started" }
+    try {
+      for (listener in listeners) {
+        listener.onRecorderStop()
+      }
+      val recordingFailure = try {
+        configuration.interceptor().stop(stopped)
+        null
+      } catch (e: RuntimeException) {
+        e
+      }
+      // The session has ended, so nothing records to the tape anymore while it is being written.
+      if (configuration.isWriteBehind && stopped.isDirty) {
+        WriteBehind.SHARED.submit(tapeFile(stopped.name), Runnable { writeTape(stopped) })
+      } else {
+        writeTape(stopped)
+      }
+      if (recordingFailure != null) {
+        throw recordingFailure
+      }
+    } finally {
+      tape = null
+    }
+  }
 
-    for (listener in listeners) {
-      listener.onRecorderStop()
+  private fun loadTape(tapeName: String): Tape {
+    val events = configuration.eventListener
+    val started = if (events === OkReplayEventListener.NONE) 0L else System.nanoTime()
+    val tape = tapeLoader.loadTape(tapeName)
+    if (events !== OkReplayEventListener.NONE) {
+      events.tapeLoaded(tape, tapeLoader.normalize(tapeName), System.nanoTime() - started)
+    }
+    return tape
+  }
+
+  private fun writeTape(stopped: Tape) {
+    // A tape no request consulted was never loaded and has nothing to write.
+    val tape = if (stopped is LazyTape) stopped.loadedOrNull() ?: return else stopped
+    val events = configuration.eventListener
+    if (events !== OkReplayEventListener.NONE && tape.isDirty) {
+      val started = System.nanoTime()
+      tapeLoader.writeTape(tape)
+      events.tapeWritten(tape, tapeLoader.normalize(tape.name), System.nanoTime() - started)
+    } else {
+      tapeLoader.writeTape(tape)
     }
-    tapeLoader.writeTape(tape)
-    tape = null
   }
+
+  /** The file [tapeName] is written to, which identifies its pending write. */
+  private fun tapeFile(tapeName: String) =
+      File(configuration.tapeRoot.get(), tapeLoader.normalize(tapeName))
 }
@@ -0,0 +1,93 @@
+package okreplay;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Records interactions to a tape on a single background thread, so that recording doesn't add to
+ * the latency of the call being recorded. Recordings are made in the order they are submitted. Up
+ * to {@link #CAPACITY} recordings are queued, beyond that submitting waits for the writer to catch
+ * up. Recordings submitted once the queue is drained are not made.
+ */
+final class RecordingQueue {
+  static final int CAPACITY = 256;
+  private final ExecutorService executor;
+  private final Semaphore capacity = new Semaphore(CAPACITY);
+  private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+  private boolean drained;
+
+  RecordingQueue(final String tapeName) {
+    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "okreplay-recording-" + tapeName);
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Queues {@code recording}, waiting for room in the queue if it is full.
+   *
+   * @return {@code false} if the queue has been drained, or the thread was interrupted while
+   * waiting, and the recording won't be made.
+   */
+  boolean submit(final Runnable recording) {
+    try {
+      capacity.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    // Checked and queued under the lock, so a recording is either made before the queue is
+    // drained or not at all.
+    synchronized (this) {
+      if (drained) {
+        capacity.release();
+        return false;
+      }
+      executor.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            recording.run();
+          } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            capacity.release();
+          }
+        }
+      });
+    }
+    return true;
+  }
+
+  /**
+   * Waits for the submitted recordings to be made and stops the writer thread.
+   *
+   * @throws IllegalStateException if a recording failed.
+   */
+  void drain() {
+    synchronized (this) {
+      drained = true;
+      executor.shutdown();
+    }
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        // Keep waiting, the tape isn't complete before all recordings are made.
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for recordings", e);
+    }
+    RuntimeException e = failure.getAndSet(null);
+    if (e != null) {
+      throw new IllegalStateException("Failed to record an interaction", e);
+    }
+  }
+}
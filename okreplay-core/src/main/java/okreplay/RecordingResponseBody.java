@@ -0,0 +1,110 @@
+package okreplay;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * A response body that passes the bytes of the real response on to the caller as they arrive and
+ * keeps a copy of them. Once the body has been read completely, the copy is handed to a
+ * {@link Callback} to be recorded. If the caller closes the body early, the rest is read first so
+ * that the whole body is recorded, but only if its length is known and at most
+ * {@link #MAX_DRAINED_BYTES}, so that closing a long or endless stream doesn't block. Otherwise,
+ * and if it fails to download, the body is not recorded.
+ * <p>
+ * The copy is kept in memory without a limit, as recorded responses hold their bodies in memory
+ * anyway until the tape moves them into its body store, if it has one. Streaming only saves the
+ * caller from waiting for the whole body; it doesn't make recording large bodies use less memory.
+ */
+class RecordingResponseBody extends ResponseBody {
+  static final long MAX_DRAINED_BYTES = 64 * 1024;
+
+  interface Callback {
+    /** Called with the complete body once it has been read. */
+    void onComplete(Buffer copy);
+  }
+
+  private final ResponseBody delegate;
+  private final Callback callback;
+  private BufferedSource source;
+
+  RecordingResponseBody(ResponseBody delegate, Callback callback) {
+    this.delegate = delegate;
+    this.callback = callback;
+  }
+
+  @Override public MediaType contentType() {
+    return delegate.contentType();
+  }
+
+  @Override public long contentLength() {
+    return delegate.contentLength();
+  }
+
+  @Override public synchronized BufferedSource source() {
+    if (source == null) {
+      source = Okio.buffer(new TeeSource(delegate.source()));
+    }
+    return source;
+  }
+
+  private final class TeeSource extends ForwardingSource {
+    private final Buffer copy = new Buffer();
+    private long bytesRead;
+    private boolean done;
+
+    TeeSource(BufferedSource delegate) {
+      super(delegate);
+    }
+
+    @Override public long read(Buffer sink, long byteCount) throws IOException {
+      long read;
+      try {
+        read = super.read(sink, byteCount);
+      } catch (IOException e) {
+        done = true;
+        throw e;
+      }
+      if (read == -1) {
+        complete();
+      } else {
+        bytesRead += read;
+        if (!done) {
+          sink.copyTo(copy, sink.size() - read, read);
+        }
+      }
+      return read;
+    }
+
+    @Override public void close() throws IOException {
+      try {
+        if (!done) {
+          long contentLength = contentLength();
+          if (contentLength != -1 && contentLength - bytesRead <= MAX_DRAINED_BYTES) {
+            while (super.read(copy, 8192) != -1) {
+            }
+            complete();
+          } else {
+            done = true;
+          }
+        }
+      } catch (IOException e) {
+        done = true;
+      } finally {
+        super.close();
+      }
+    }
+
+    private void complete() {
+      if (!done) {
+        done = true;
+        callback.onComplete(copy);
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package okreplay;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import okhttp3.HttpUrl;
+import okio.ByteString;
+
+/**
+ * The parts of a request that the {@link MatchRules} compare, parsed once instead of on every
+ * comparison. Recorded requests keep their view, so matching a request against a whole tape
+ * parses each URL once. The sorted query parameters and the body digest are only computed if a
+ * rule compares them.
+ */
+final class RequestView {
+  /** Stands in for a missing query or body in keys, as it can't be part of either. */
+  static final String ABSENT = "\u0000";
+  final String host;
+  final String path;
+  /** The port given in the URL, or -1 if it is the default port of the scheme. */
+  final int port;
+  @Nullable final String query;
+  private final Request request;
+  private volatile String[] queryParameters;
+  private volatile String queryParametersKey;
+  private volatile String bodyKey;
+  /** Keys computed by rules that compare requests by an expensive key, by rule. */
+  private volatile DerivedKey[] derivedKeys = new DerivedKey[0];
+
+  RequestView(Request request) {
+    HttpUrl url = request.url();
+    this.request = request;
+    this.host = url.host();
+    this.path = url.encodedPath();
+    this.port = url.port() == HttpUrl.defaultPort(url.scheme()) ? -1 : url.port();
+    this.query = url.encodedQuery();
+  }
+
+  /** @return the view of {@code request}, which recorded requests only create once. */
+  static RequestView of(Request request) {
+    return request instanceof RecordedRequest
+        ? ((RecordedRequest) request).view() : new RequestView(request);
+  }
+
+  /** @return the sorted parameters of the query, or {@code null} if there is no query. */
+  @Nullable String[] queryParameters() {
+    String[] parameters = queryParameters;
+    if (parameters == null && query != null) {
+      parameters = query.split("&");
+      Arrays.sort(parameters);
+      queryParameters = parameters;
+    }
+    return parameters;
+  }
+
+  String queryParametersKey() {
+    String key = queryParametersKey;
+    if (key == null) {
+      String[] parameters = queryParameters();
+      key = parameters == null ? ABSENT : Arrays.toString(parameters);
+      queryParametersKey = key;
+    }
+    return key;
+  }
+
+  /**
+   * The length and SHA-256 of the body. Requests with different keys have different bodies, and
+   * requests with equal keys have the same body unless SHA-256 collides. The body is only hashed
+   * the first time a rule asks for the key, so requests that aren't matched by body don't pay for
+   * it.
+   */
+  String bodyKey() {
+    String key = bodyKey;
+    if (key == null) {
+      byte[] body = request.body();
+      key = body == null ? ABSENT : body.length + ":" + digest(body).hex();
+      bodyKey = key;
+    }
+    return key;
+  }
+
+  /**
+   * The key of this request according to {@code rule}, which is computed by {@code derivation}
+   * the first time and kept for the following comparisons with {@code rule} or one equal to it.
+   */
+  String derivedKey(MatchRule rule, Derivation derivation) {
+    DerivedKey[] keys = derivedKeys;
+    for (DerivedKey derived : keys) {
+      if (derived.rule.equals(rule)) {
+        return derived.key;
+      }
+    }
+    String key = derivation.derive(request);
+    DerivedKey[] updated = Arrays.copyOf(keys, keys.length + 1);
+    updated[keys.length] = new DerivedKey(rule, key);
+    // Racing updates may drop a key, which only costs deriving it again.
+    derivedKeys = updated;
+    return key;
+  }
+
+  private static ByteString digest(byte[] body) {
+    try {
+      return ByteString.of(MessageDigest.getInstance("SHA-256").digest(body));
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /** Computes the key of a request for a rule. */
+  interface Derivation {
+    String derive(Request request);
+  }
+
+  private static final class DerivedKey {
+    final MatchRule rule;
+    final String key;
+
+    DerivedKey(MatchRule rule, String key) {
+      this.rule = rule;
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package okreplay;
+
+import javax.annotation.Nullable;
+
+/**
+ * A tape that can match a request and play back its response in a single step. Implemented by the
+ * tapes in this package, so that {@link Tape} stays the same for tapes implemented elsewhere, which
+ * are played back with {@link Tape#seek(Request)} and {@link Tape#play(Request)} instead.
+ */
+interface SeekAndPlayTape extends Tape {
+  /**
+   * Finds a recorded interaction that matches the request and retrieves its response in a single
+   * step. This is equivalent to calling {@link #seek(Request)} followed by {@link #play(Request)}
+   * but only matches the request once, and in sequential mode only advances the tape if the next
+   * recorded request matches.
+   *
+   * @param request the HTTP request to match.
+   * @return the recorded response or `null` if no matching recorded interaction exists.
+   * @throws IllegalStateException if the tape is not readable.
+   */
+  @Nullable Response seekAndPlay(Request request);
+}
@@ -0,0 +1,14 @@
+package okreplay;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** A {@link TapeRoot} that can also provide raw byte access to tapes, e.g. for binary tapes. */
+public interface StreamTapeRoot extends TapeRoot {
+  /** Returns a stream for reading a tape in the provided path. Throws if the file doesnt exist. */
+  InputStream inputStreamFor(String tapeFileName);
+  /** Returns a stream for writing to a new tape in the provided path. */
+  OutputStream outputStreamFor(String tapePath);
+  /** Returns a stream for writing to the end of an existing tape in the provided path. */
+  OutputStream appendingStreamFor(String tapePath);
+}
@@ -57,8 +57,8 @@ public interface Tape {
   void record(Request request, Response response);
 
   /**
-   * @return `true` if the tape content has changed since last being loaded from disk, `false`
-   * otherwise.
+   * @return `true` if the tape content has changed since last being loaded from or written to
+   * disk, `false` otherwise.
    */
   boolean isDirty();
 }
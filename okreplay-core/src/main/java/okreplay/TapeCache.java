@@ -0,0 +1,113 @@
+package okreplay;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the interactions of recently loaded tape files, so that tests sharing a tape don't parse it
+ * again. Entries are keyed by file and only used while the file still has the same modification
+ * time and size. The cache holds tapes up to a total file size, evicting the least recently used
+ * ones beyond it. Parsed tapes usually take a few times the size of their files on the heap. Each
+ * load gets its own tape that shares the cached interactions until it records new ones.
+ */
+final class TapeCache {
+  /**
+   * The cache shared by all loaders in the process. It holds nothing until a configuration enables
+   * it, and then as much as the largest size any configuration asked for.
+   */
+  static final TapeCache SHARED = new TapeCache(0);
+
+  private final Map<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long maxSize;
+  private long size;
+
+  TapeCache(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /** Grows the size of the cache to {@code maxSize}, if it is smaller. */
+  synchronized TapeCache ensureMaxSize(long maxSize) {
+    this.maxSize = Math.max(this.maxSize, maxSize);
+    return this;
+  }
+
+  /**
+   * @return the file {@code tapeFileName} is read from if tapes in {@code tapeRoot} can be cached,
+   * otherwise {@code null}. Only plain files can be checked for changes; a subclass of
+   * {@link DefaultTapeRoot} may read tapes from elsewhere, e.g. Android assets.
+   */
+  static File cacheableFile(TapeRoot tapeRoot, String tapeFileName) {
+    return tapeRoot.getClass() == DefaultTapeRoot.class
+        ? new File(tapeRoot.get(), tapeFileName).getAbsoluteFile() : null;
+  }
+
+  /** @return a new tape with the cached content of {@code file}, or {@code null} on a miss. */
+  synchronized YamlTape get(File file) {
+    Entry entry = entries.get(file);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.lastModified != file.lastModified() || entry.length != file.length()) {
+      remove(file);
+      return null;
+    }
+    YamlTape tape = new YamlTape(entry.interactions);
+    tape.setName(entry.name);
+    tape.setAppendable(entry.appendable);
+    tape.markPersisted();
+    return tape;
+  }
+
+  /** Caches the content of {@code tape}, which was just loaded from {@code file}. */
+  synchronized void put(File file, YamlTape tape) {
+    remove(file);
+    long length = file.length();
+    if (length > maxSize) {
+      return;
+    }
+    List<YamlRecordedInteraction> interactions =
+        Collections.unmodifiableList(new ArrayList<>(tape.getInteractions()));
+    entries.put(file, new Entry(tape.getName(), interactions, tape.isAppendable(),
+        file.lastModified(), length));
+    size += length;
+    Iterator<Entry> eldest = entries.values().iterator();
+    while (size > maxSize) {
+      size -= eldest.next().length;
+      eldest.remove();
+    }
+  }
+
+  synchronized void remove(File file) {
+    Entry entry = entries.remove(file);
+    if (entry != null) {
+      size -= entry.length;
+    }
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  private static final class Entry {
+    final String name;
+    final List<YamlRecordedInteraction> interactions;
+    final boolean appendable;
+    final long lastModified;
+    final long length;
+
+    Entry(String name, List<YamlRecordedInteraction> interactions, boolean appendable,
+        long lastModified, long length) {
+      this.name = name;
+      this.interactions = interactions;
+      this.appendable = appendable;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+}
@@ -1,12 +1,20 @@
 package okreplay;
 
+import org.yaml.snakeyaml.constructor.AbstractConstruct;
 import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.error.YAMLException;
 import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
 import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.ScalarNode;
 
 class TapeConstructor extends Constructor {
-  TapeConstructor() {
+  private final BodyStore bodyStore;
+
+  TapeConstructor(BodyStore bodyStore) {
+    this.bodyStore = bodyStore;
     yamlClassConstructors.put(NodeId.mapping, new ConstructTape());
+    yamlConstructors.put(BodyStore.TAG, new ConstructStoredBody());
   }
 
   private class ConstructTape extends ConstructMapping {
@@ -18,4 +26,13 @@ class TapeConstructor extends Constructor {
       }
     }
   }
+
+  private class ConstructStoredBody extends AbstractConstruct {
+    @Override public Object construct(Node node) {
+      if (bodyStore == null) {
+        throw new YAMLException("body references require a StreamTapeRoot");
+      }
+      return bodyStore.get(((ScalarNode) node).getValue());
+    }
+  }
 }
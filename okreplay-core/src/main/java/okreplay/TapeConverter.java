@@ -0,0 +1,57 @@
+package okreplay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.logging.Logger;
+
+/**
+ * Converts YAML tapes to the {@link TapeFormat#BINARY binary format}, so tapes can be edited as
+ * YAML and loaded from the faster binary format, e.g. on CI.
+ */
+public final class TapeConverter {
+  private static final Logger LOG = Logger.getLogger(TapeConverter.class.getSimpleName());
+
+  /**
+   * Writes a binary copy next to each YAML tape in {@code tapeRoot}.
+   *
+   * @return the number of converted tapes.
+   */
+  public static int yamlToBinary(File tapeRoot) throws IOException {
+    DefaultTapeRoot root = new DefaultTapeRoot(tapeRoot);
+    YamlTapeLoader yamlLoader = new YamlTapeLoader(root);
+    BinaryTapeLoader binaryLoader = new BinaryTapeLoader(root);
+    File[] files = tapeRoot.listFiles();
+    int converted = 0;
+    if (files != null) {
+      for (File file : files) {
+        if (file.isFile() && file.getName().endsWith(".yaml")) {
+          YamlTape tape;
+          Reader reader = root.readerFor(file.getName());
+          try {
+            tape = yamlLoader.readFrom(reader);
+          } finally {
+            reader.close();
+          }
+          String fileName = binaryLoader.normalize(tape.getName());
+          LOG.info(String.format("converting tape %s to file %s...", file.getName(), fileName));
+          binaryLoader.write(tape, fileName);
+          converted++;
+        }
+      }
+    }
+    return converted;
+  }
+
+  public static void main(String... args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: TapeConverter <tape root directory>");
+      System.exit(1);
+    }
+    int converted = yamlToBinary(new File(args[0]));
+    System.out.println("Converted " + converted + " tapes");
+  }
+
+  private TapeConverter() {
+  }
+}
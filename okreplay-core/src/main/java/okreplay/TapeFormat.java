@@ -0,0 +1,33 @@
+package okreplay;
+
+/** The file formats tapes can be stored in. */
+public enum TapeFormat {
+  /** Human readable and editable YAML tapes. This is the default. */
+  YAML {
+    @Override TapeLoader<? extends Tape> loader(OkReplayConfig configuration) {
+      long tapeCacheSize = configuration.getTapeCacheSize();
+      return new YamlTapeLoader(configuration.getTapeRoot(), configuration.getBodyStoreThreshold(),
+          tapeCacheSize > 0 ? TapeCache.SHARED.ensureMaxSize(tapeCacheSize) : null);
+    }
+  },
+  /**
+   * Compact binary tapes that are much faster to load. Requires a {@link StreamTapeRoot}. Existing
+   * YAML tapes can be converted with {@link TapeConverter}.
+   */
+  BINARY {
+    @Override TapeLoader<? extends Tape> loader(OkReplayConfig configuration) {
+      return new BinaryTapeLoader(configuration.getTapeRoot());
+    }
+  },
+  /**
+   * Binary tapes that are memory-mapped instead of read, and only decoded as interactions are
+   * used. Mapped tapes are read-only, so new interactions need to be recorded with {@link #BINARY}.
+   */
+  BINARY_MAPPED {
+    @Override TapeLoader<? extends Tape> loader(OkReplayConfig configuration) {
+      return new MappedTapeLoader(configuration.getTapeRoot());
+    }
+  };
+
+  abstract TapeLoader<? extends Tape> loader(OkReplayConfig configuration);
+}
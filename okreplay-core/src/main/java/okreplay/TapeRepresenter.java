@@ -25,17 +25,27 @@ import java.util.TreeMap;
 
 /**
  * Applies a fixed ordering to properties and excludes `null` valued
- * properties, empty collections and empty maps.
+ * properties, empty collections and empty maps. If a {@link BodyStore} is given, response bodies
+ * larger than the threshold are moved into it and represented by a reference.
  */
 class TapeRepresenter extends Representer {
-  TapeRepresenter() {
+  private final BodyStore bodyStore;
+  private final int bodyStoreThreshold;
+
+  TapeRepresenter(BodyStore bodyStore, int bodyStoreThreshold) {
+    this.bodyStore = bodyStore;
+    this.bodyStoreThreshold = bodyStoreThreshold;
     setPropertyUtils(new TapePropertyUtils());
     representers.put(URI.class, new RepresentURI());
+    representers.put(BodyStore.StoredBody.class, new RepresentStoredBody());
   }
 
   @Override
   protected NodeTuple representJavaBeanProperty(Object bean, Property property, Object value, Tag
       customTag) {
+    if (bean instanceof YamlRecordedResponse && "body".equals(property.getName())) {
+      value = maybeStore((YamlRecordedResponse) bean, value);
+    }
     NodeTuple tuple = super.representJavaBeanProperty(bean, property, value, customTag);
 
     if (isNullValue(tuple) || isEmptySequence(tuple) || isEmptyMapping(tuple)) {
@@ -49,6 +59,13 @@ class TapeRepresenter extends Representer {
     return super.representMapping(tag, sort(mapping), flowStyle);
   }
 
+  private Object maybeStore(YamlRecordedResponse response, Object body) {
+    if (bodyStore == null || bodyStoreThreshold < 0) {
+      return body;
+    }
+    return bodyStore.maybeStore(body, response.contentType(), bodyStoreThreshold);
+  }
+
   private <K, V> Map<K, V> sort(Map<K, V> self) {
     return new TreeMap<>(self);
   }
@@ -73,6 +90,12 @@ class TapeRepresenter extends Representer {
     }
   }
 
+  private class RepresentStoredBody implements Represent {
+    public Node representData(Object data) {
+      return representScalar(BodyStore.TAG, ((BodyStore.StoredBody) data).reference());
+    }
+  }
+
   private class TapePropertyUtils extends PropertyUtils {
     @Override protected Set<Property> createPropertySet(Class<?> type, BeanAccess bAccess) {
       try {
@@ -0,0 +1,25 @@
+package okreplay;
+
+/**
+ * Which requests a started {@link Recorder} intercepts, so that several recorders can share one
+ * {@link OkReplayInterceptor} and the client it is installed in.
+ * <p>
+ * Regardless of the scope, a request tagged with a started tape, e.g. with
+ * {@code request.newBuilder().tag(Tape.class, recorder.getTape())}, always uses that tape. This is
+ * the only way to tell requests apart that are made on threads of a shared pool, like OkHttp's
+ * dispatcher for asynchronous calls.
+ */
+public enum TapeScope {
+  /**
+   * The tape is used for all requests. Starting another recorder replaces it. This is the
+   * default.
+   */
+  GLOBAL,
+  /** The tape is used for requests made on the thread that started the recorder. */
+  THREAD,
+  /**
+   * The tape is used for requests made on the thread that started the recorder and on threads
+   * created by it while the recorder runs.
+   */
+  INHERITABLE_THREAD
+}
@@ -2,12 +2,16 @@ package okreplay;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Iterator;
 import javax.annotation.Nullable;
@@ -76,6 +80,26 @@ final class Util {
     return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), charset));
   }
 
+  /** Returns a buffered writer for {@code out} that can be aborted if {@code out} can. */
+  static Writer newWriter(OutputStream out, Charset charset) {
+    return new AbortableWriter(out, charset);
+  }
+
+  /**
+   * Closes {@code stream} after writing to it failed, discarding what was written if it is
+   * {@link Abortable}.
+   */
+  static void abort(Closeable stream) {
+    if (stream instanceof Abortable) {
+      ((Abortable) stream).abort();
+    } else {
+      try {
+        stream.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
   static <T> int indexOf(Iterator<T> iterator, Predicate<? super T> predicate) {
     checkNotNull(predicate, "predicate");
     for (int i = 0; iterator.hasNext(); i++) {
@@ -97,4 +121,18 @@ final class Util {
     }
     return true;
   }
+
+  private static final class AbortableWriter extends BufferedWriter implements Abortable {
+    private final OutputStream out;
+
+    AbortableWriter(OutputStream out, Charset charset) {
+      super(new OutputStreamWriter(out, charset));
+      this.out = out;
+    }
+
+    /** Buffered characters are dropped rather than written, as they are discarded anyway. */
+    @Override public void abort() {
+      Util.abort(out);
+    }
+  }
 }
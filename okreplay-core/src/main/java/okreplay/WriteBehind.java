@@ -0,0 +1,167 @@
+package okreplay;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes tapes on a background thread, so that stopping a recorder doesn't wait for its tape to
+ * be serialized. Tapes are written one at a time in the order they were submitted. Loading a tape
+ * waits for its pending write, and pending writes are flushed when the JVM shuts down.
+ * <p>
+ * Tape roots that buffer written tapes, like {@link ZipTapeRoot}, are flushed on shutdown from
+ * the same hook once the pending writes are done, so none of those writes can reach a root that
+ * has already been flushed.
+ */
+final class WriteBehind {
+  static final WriteBehind SHARED = new WriteBehind();
+  private static final Logger LOG = Logger.getLogger(WriteBehind.class.getSimpleName());
+  /**
+   * The writes submitted for each tape file that nobody waited for yet. Earlier writes are kept
+   * along with later ones to the same file, so their failures are reported too.
+   */
+  private final Map<File, List<Future<?>>> pending = new HashMap<>();
+  /** Tape roots to flush on shutdown after the pending writes. */
+  private final Set<Flushable> roots = new LinkedHashSet<>();
+  private ExecutorService executor;
+  private boolean shutdownHookAdded;
+
+  synchronized void submit(File tapeFile, Runnable write) {
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "okreplay-write-behind");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      addShutdownHook();
+    }
+    List<Future<?>> writes = pending.get(tapeFile);
+    if (writes == null) {
+      writes = new ArrayList<>();
+      pending.put(tapeFile, writes);
+    }
+    writes.add(executor.submit(write));
+  }
+
+  /** Flushes {@code root} when the JVM shuts down, after any pending writes. */
+  synchronized void flushOnShutdown(Flushable root) {
+    roots.add(root);
+    addShutdownHook();
+  }
+
+  synchronized void removeFlushOnShutdown(Flushable root) {
+    roots.remove(root);
+  }
+
+  /**
+   * Waits for the pending writes of {@code tapeFile}, if there are any.
+   *
+   * @throws RuntimeException if a write failed, after waiting for the others.
+   */
+  void await(File tapeFile) {
+    List<Future<?>> writes;
+    synchronized (this) {
+      writes = pending.remove(tapeFile);
+    }
+    if (writes != null) {
+      getAll(writes);
+    }
+  }
+
+  /**
+   * Waits for all pending writes.
+   *
+   * @throws RuntimeException if a write failed, after waiting for the others.
+   */
+  void flush() {
+    List<Future<?>> writes = new ArrayList<>();
+    synchronized (this) {
+      for (List<Future<?>> tapeWrites : pending.values()) {
+        writes.addAll(tapeWrites);
+      }
+      pending.clear();
+    }
+    getAll(writes);
+  }
+
+  /**
+   * Waits for all {@code writes}. The first failure is thrown once they are done, with the
+   * failures of the others added to it as suppressed exceptions.
+   */
+  private static void getAll(List<Future<?>> writes) {
+    RuntimeException failure = null;
+    for (Future<?> write : writes) {
+      try {
+        get(write);
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        } else if (failure != e) {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void addShutdownHook() {
+    if (shutdownHookAdded) {
+      return;
+    }
+    shutdownHookAdded = true;
+    Runtime.getRuntime().addShutdownHook(new Thread("okreplay-write-behind-flush") {
+      @Override public void run() {
+        try {
+          flush();
+        } catch (RuntimeException e) {
+          LOG.log(Level.SEVERE, "Failed to write tape", e);
+        }
+        List<Flushable> flushed;
+        synchronized (WriteBehind.this) {
+          flushed = new ArrayList<>(roots);
+        }
+        for (Flushable root : flushed) {
+          try {
+            root.flush();
+          } catch (IOException | RuntimeException e) {
+            LOG.log(Level.SEVERE, "Failed to flush tapes", e);
+          }
+        }
+      }
+    });
+  }
+
+  private static void get(Future<?> write) {
+    try {
+      write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a tape to be written", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+}
@@ -20,6 +20,18 @@ public class YamlRecordedInteraction {
     this(null, null, null);
   }
 
+  public Date recorded() {
+    return recorded;
+  }
+
+  public YamlRecordedRequest request() {
+    return request;
+  }
+
+  public YamlRecordedResponse response() {
+    return response;
+  }
+
   RecordedInteraction toImmutable() {
     if (immutableInteraction == null) {
       immutableInteraction = createImmutable();
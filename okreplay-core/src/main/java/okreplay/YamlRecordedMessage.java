@@ -10,6 +10,7 @@ import static okreplay.Util.isNullOrEmpty;
 
 public abstract class YamlRecordedMessage {
   private final Map<String, String> headers;
+  /** A {@link String} for text, a {@code byte[]} or an {@link ExternalBody}. */
   private final Object body;
 
   YamlRecordedMessage(Map<String, String> headers, Object body) {
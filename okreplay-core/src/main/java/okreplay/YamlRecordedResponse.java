@@ -26,15 +26,19 @@ public class YamlRecordedResponse extends YamlRecordedMessage {
   @Override Response toImmutable() {
     Object body = body();
     MediaType mediaType = MediaType.parse(contentType());
+    RecordedResponse.Builder builder = new RecordedResponse.Builder()
+        .code(code())
+        .headers(okhttp3.Headers.of(headers()));
+    if (body instanceof ExternalBody) {
+      return builder.body((ExternalBody) body, mediaType).build();
+    }
     ResponseBody responseBody = null;
     if (body != null) {
       responseBody = body instanceof String
           ? ResponseBody.create(mediaType, (String) body)
           : ResponseBody.create(mediaType, (byte[]) body);
     }
-    return new RecordedResponse.Builder()
-        .code(code())
-        .headers(okhttp3.Headers.of(headers()))
+    return builder
         .body(responseBody)
         .build();
   }
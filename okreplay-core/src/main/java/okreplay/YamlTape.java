@@ -2,10 +2,28 @@ package okreplay;
 
 import org.yaml.snakeyaml.nodes.Tag;
 
+import java.util.List;
+
 class YamlTape extends MemoryTape {
   static final Tag TAPE_TAG = new Tag("!tape");
 
   private transient boolean dirty;
+  /**
+   * Whether the file this tape was loaded from ends with a block sequence of interactions, so new
+   * interactions can be appended to it.
+   */
+  private transient boolean appendable;
+  /** Where large response bodies are moved as they are recorded, if anywhere. */
+  private transient BodyStore bodyStore;
+  private transient int bodyStoreThreshold = -1;
+
+  YamlTape() {
+  }
+
+  /** Uses {@code interactions} as the backing list without copying it. */
+  YamlTape(List<YamlRecordedInteraction> interactions) {
+    super(interactions);
+  }
 
   @Override public boolean isDirty() {
     return dirty;
@@ -15,4 +33,40 @@ class YamlTape extends MemoryTape {
     super.record(request, response);
     dirty = true;
   }
+
+  @Override synchronized void markPersisted() {
+    super.markPersisted();
+    dirty = false;
+  }
+
+  /**
+   * Moves response bodies larger than {@code threshold} bytes into {@code bodyStore} as soon as
+   * they are recorded, so they are not held in memory while the tape is in use.
+   */
+  void storeBodiesIn(BodyStore bodyStore, int threshold) {
+    this.bodyStore = bodyStore;
+    this.bodyStoreThreshold = threshold;
+  }
+
+  @Override YamlRecordedInteraction prepare(YamlRecordedInteraction interaction) {
+    YamlRecordedResponse response = interaction.response();
+    if (bodyStore == null || bodyStoreThreshold < 0 || response == null) {
+      return interaction;
+    }
+    Object body = bodyStore.maybeStore(response.body(), response.contentType(),
+        bodyStoreThreshold);
+    if (body == response.body()) {
+      return interaction;
+    }
+    return new YamlRecordedInteraction(interaction.recorded(), interaction.request(),
+        new YamlRecordedResponse(response.headers(), body, response.code()));
+  }
+
+  boolean isAppendable() {
+    return appendable;
+  }
+
+  void setAppendable(boolean appendable) {
+    this.appendable = appendable;
+  }
 }
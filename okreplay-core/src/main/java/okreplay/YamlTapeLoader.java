@@ -6,63 +6,185 @@ import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.error.YAMLException;
 import org.yaml.snakeyaml.introspector.BeanAccess;
+import org.yaml.snakeyaml.nodes.Tag;
 import org.yaml.snakeyaml.representer.Representer;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
-import java.util.Locale;
-import java.util.logging.Logger;
+import java.nio.charset.Charset;
+import java.util.List;
 
 import static org.yaml.snakeyaml.DumperOptions.FlowStyle.BLOCK;
 
 class YamlTapeLoader implements TapeLoader<YamlTape> {
-  private static final Logger LOG = Logger.getLogger(YamlTapeLoader.class.getSimpleName());
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
   private final TapeRoot tapeRoot;
+  /** Resolves body references, or {@code null} if the tape root only provides text access. */
+  private final BodyStore bodyStore;
+  /** Size above which response bodies are moved into the body store, or -1 to keep them inline. */
+  private final int bodyStoreThreshold;
+  /** Keeps parsed tapes, or {@code null} to always read tapes from their files. */
+  private final TapeCache tapeCache;
+  private Yaml yaml;
 
   YamlTapeLoader(File tapeRoot) {
     this(new DefaultTapeRoot(tapeRoot));
   }
 
   YamlTapeLoader(TapeRoot tapeRoot) {
+    this(tapeRoot, -1);
+  }
+
+  YamlTapeLoader(TapeRoot tapeRoot, int bodyStoreThreshold) {
+    this(tapeRoot, bodyStoreThreshold, null);
+  }
+
+  YamlTapeLoader(TapeRoot tapeRoot, int bodyStoreThreshold, TapeCache tapeCache) {
+    if (bodyStoreThreshold >= 0 && !(tapeRoot instanceof StreamTapeRoot)) {
+      throw new IllegalArgumentException("The body store requires a StreamTapeRoot");
+    }
     this.tapeRoot = tapeRoot;
+    this.bodyStore = tapeRoot instanceof StreamTapeRoot
+        ? new BodyStore((StreamTapeRoot) tapeRoot) : null;
+    this.bodyStoreThreshold = bodyStoreThreshold;
+    this.tapeCache = tapeCache;
   }
 
   @Override public YamlTape loadTape(String tapeName) {
     String fileName = normalize(tapeName);
     if (tapeRoot.tapeExists(fileName)) {
-      Reader reader = tapeRoot.readerFor(fileName);
-      YamlTape tape = readFrom(reader);
-      LOG.info(String.format(Locale.US,
-          "loaded tape with %d recorded interactions from file %s...", tape.size(), fileName));
-      return tape;
+      File cacheFile = tapeCache != null ? TapeCache.cacheableFile(tapeRoot, fileName) : null;
+      YamlTape tape = cacheFile != null ? tapeCache.get(cacheFile) : null;
+      if (tape != null) {
+        return storeBodies(tape);
+      }
+      try {
+        tape = YamlTapeScanner.read(tapeRoot.readerFor(fileName), bodyStore);
+      } catch (YamlTapeScanner.UnsupportedTapeException e) {
+        // Hand-edited tapes with aliases or unknown keys are left to the bean graph.
+        Reader reader = tapeRoot.readerFor(fileName);
+        try {
+          tape = readFrom(reader);
+        } finally {
+          try {
+            reader.close();
+          } catch (IOException ignored) {
+          }
+        }
+      }
+      tape.markPersisted();
+      if (cacheFile != null) {
+        tapeCache.put(cacheFile, tape);
+      }
+      return storeBodies(tape);
     } else {
-      return newTape(tapeName);
+      return storeBodies(newTape(tapeName));
     }
   }
 
+  private YamlTape storeBodies(YamlTape tape) {
+    if (bodyStore != null && bodyStoreThreshold >= 0) {
+      tape.storeBodiesIn(bodyStore, bodyStoreThreshold);
+    }
+    return tape;
+  }
+
   @Override public void writeTape(final Tape tape) {
     String fileName = normalize(tape.getName());
     if (tape.isDirty()) {
       //noinspection OverlyBroadCatchBlock
       try {
-        Writer writer = tapeRoot.writerFor(fileName);
-        LOG.info(String.format("writing tape %s to file %s...", tape.getName(), fileName));
-        writeTo(tape, writer);
+        // Serialized before the file is opened, so a tape that fails to serialize can't leave
+        // a truncated file behind.
+        List<YamlRecordedInteraction> appended = appendableInteractions(tape, fileName);
+        if (appended != null) {
+          if (!appended.isEmpty()) {
+            // Written at once, so a failed write can't leave part of an interaction behind.
+            byte[] yaml = dump(appended).getBytes(UTF_8);
+            OutputStream out = ((StreamTapeRoot) tapeRoot).appendingStreamFor(fileName);
+            boolean written = false;
+            try {
+              out.write(yaml);
+              out.close();
+              written = true;
+            } finally {
+              if (!written) {
+                Util.abort(out);
+              }
+            }
+          }
+        } else {
+          String yaml = dump(tape);
+          Writer writer = tapeRoot.writerFor(fileName);
+          boolean written = false;
+          try {
+            writer.write(yaml);
+            writer.close();
+            written = true;
+          } finally {
+            if (!written) {
+              Util.abort(writer);
+            }
+          }
+        }
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      File cacheFile = TapeCache.cacheableFile(tapeRoot, fileName);
+      if (cacheFile != null) {
+        // Also dropped from the shared cache if this loader doesn't use it, as others may.
+        TapeCache.SHARED.remove(cacheFile);
+        if (tapeCache != null) {
+          tapeCache.remove(cacheFile);
+        }
+      }
+      if (tape instanceof YamlTape) {
+        YamlTape yamlTape = (YamlTape) tape;
+        yamlTape.markPersisted();
+        // Once written by us the file ends with the interactions, unless there are none.
+        yamlTape.setAppendable(yamlTape.size() > 0);
+      }
     }
   }
 
+  /**
+   * @return the interactions to append to the existing tape file, or {@code null} if the file has
+   * to be rewritten as a whole.
+   */
+  private List<YamlRecordedInteraction> appendableInteractions(Tape tape, String fileName) {
+    if (!(tape instanceof YamlTape) || !writesWhereItReads(tapeRoot)) {
+      return null;
+    }
+    YamlTape yamlTape = (YamlTape) tape;
+    if (!yamlTape.isAppendable() || !tapeRoot.tapeExists(fileName)) {
+      return null;
+    }
+    return yamlTape.unpersistedInteractions();
+  }
+
+  /**
+   * Whether tapes written to {@code tapeRoot} end up where they are read from, so appending extends
+   * the file the tape was loaded from. Subclasses may read tapes from elsewhere, e.g. the Android
+   * tape root reads them from the APK assets but writes them to the sdcard, where the file may be
+   * missing or stale.
+   */
+  private static boolean writesWhereItReads(TapeRoot tapeRoot) {
+    if (tapeRoot.getClass() == CompressedTapeRoot.class) {
+      return writesWhereItReads(((CompressedTapeRoot) tapeRoot).delegate());
+    }
+    return tapeRoot.getClass() == DefaultTapeRoot.class || tapeRoot.getClass() == ZipTapeRoot.class;
+  }
+
   YamlTape newTape(String name) {
     YamlTape tape = new YamlTape();
     tape.setName(name);
     return tape;
   }
 
-  YamlTape readFrom(Reader reader) {
+  synchronized YamlTape readFrom(Reader reader) {
     try {
       return (YamlTape) getYaml().load(reader);
     } catch (YAMLException | ClassCastException e) {
@@ -70,22 +192,53 @@ class YamlTapeLoader implements TapeLoader<YamlTape> {
     }
   }
 
-  void writeTo(Tape tape, Writer writer) throws IOException {
+  /**
+   * Writes {@code tape} to {@code writer} and closes it. If serializing the tape fails the writer
+   * is aborted instead, so it doesn't keep the part that was written.
+   */
+  synchronized void writeTo(Tape tape, Writer writer) throws IOException {
+    boolean written = false;
     try {
       getYaml().dump(tape, writer);
-    } finally {
       writer.close();
+      written = true;
+    } finally {
+      if (!written) {
+        Util.abort(writer);
+      }
     }
   }
 
+  synchronized String dump(Tape tape) {
+    return getYaml().dump(tape);
+  }
+
+  /**
+   * Serializes {@code interactions} as further entries of the block sequence that ends a tape
+   * file, to be appended to it.
+   */
+  synchronized String dump(List<YamlRecordedInteraction> interactions) {
+    return getYaml().dump(interactions);
+  }
+
   @Override public String normalize(String tapeName) {
     return FilenameNormalizer.toFilename(tapeName) + ".yaml";
   }
 
-  private static Yaml getYaml() {
-    Representer representer = new TapeRepresenter();
+  /** Callers need to hold the lock, as {@link Yaml} instances are not thread-safe. */
+  private Yaml getYaml() {
+    if (yaml == null) {
+      yaml = newYaml();
+    }
+    return yaml;
+  }
+
+  private Yaml newYaml() {
+    Representer representer = new TapeRepresenter(bodyStore, bodyStoreThreshold);
     representer.addClassTag(YamlTape.class, YamlTape.TAPE_TAG);
-    Constructor constructor = new TapeConstructor();
+    // Interactions dumped outside of a tape, e.g. when appending, are written without a type tag.
+    representer.addClassTag(YamlRecordedInteraction.class, Tag.MAP);
+    Constructor constructor = new TapeConstructor(bodyStore);
     constructor.addTypeDescription(new TypeDescription(YamlTape.class, YamlTape.TAPE_TAG));
     DumperOptions dumperOptions = new DumperOptions();
     dumperOptions.setDefaultFlowStyle(BLOCK);
@@ -0,0 +1,324 @@
+package okreplay;
+
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.external.biz.base64Coder.Base64Coder;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads YAML tapes with SnakeYAML's event API, handing over one interaction at a time instead of
+ * building the node and bean graphs of the whole tape first. Tooling can use {@link #scan} to look
+ * through tapes without holding them in memory.
+ * <p>
+ * Only the tapes OkReplay writes can be read this way. Hand-edited tapes using aliases, e.g. to
+ * share headers through anchors and merge keys, or keys that aren't part of a tape are rejected
+ * with an {@link UnsupportedTapeException}, so they can be loaded through the bean graph instead.
+ */
+public final class YamlTapeScanner {
+  /** Receives the interactions of a tape in the order they are recorded. */
+  public interface Callback {
+    /** @return `true` to continue scanning, `false` to stop. */
+    boolean onInteraction(YamlRecordedInteraction interaction);
+  }
+
+  /** Thrown for tapes that are valid YAML but use features the scanner doesn't support. */
+  static final class UnsupportedTapeException extends TapeLoadException {
+    UnsupportedTapeException(String message) {
+      super(message);
+    }
+  }
+
+  private static final Resolver RESOLVER = new Resolver();
+  private final Yaml scalars = new Yaml();
+  private final Reader reader;
+  private final Iterator<Event> events;
+  private final BodyStore bodyStore;
+  /**
+   * Whether the tape ends with a block sequence of interactions at the left margin, followed by a
+   * line break and nothing but the end of the stream.
+   */
+  private boolean appendable;
+
+  private YamlTapeScanner(Reader reader, BodyStore bodyStore) {
+    this.reader = reader;
+    this.bodyStore = bodyStore;
+    this.events = scalars.parse(reader).iterator();
+  }
+
+  /**
+   * Scans the tape read from {@code reader} until all interactions have been passed to
+   * {@code callback} or it asks to stop. The reader is closed afterwards. Tapes with bodies kept in
+   * a body store can't be scanned this way.
+   *
+   * @return the name of the tape, if it appears before scanning stopped.
+   * @throws TapeLoadException if the content is not a valid tape, or uses aliases or unknown keys.
+   */
+  public static String scan(Reader reader, Callback callback) {
+    return new YamlTapeScanner(reader, null).run(callback, false);
+  }
+
+  /**
+   * Reads a whole tape, streaming its interactions straight into the tape. Body references are
+   * resolved against {@code bodyStore}, if given.
+   *
+   * @throws UnsupportedTapeException if the tape uses aliases or unknown keys.
+   */
+  static YamlTape read(Reader reader, BodyStore bodyStore) {
+    final List<YamlRecordedInteraction> interactions = new ArrayList<>();
+    YamlTapeScanner scanner = new YamlTapeScanner(reader, bodyStore);
+    String name = scanner.run(new Callback() {
+      @Override public boolean onInteraction(YamlRecordedInteraction interaction) {
+        return interactions.add(interaction);
+      }
+    }, true);
+    YamlTape tape = new YamlTape();
+    tape.setName(name);
+    tape.setInteractions(interactions);
+    tape.setAppendable(scanner.appendable);
+    return tape;
+  }
+
+  private String run(Callback callback, boolean toEnd) {
+    try {
+      String name = scanTape(callback);
+      if (toEnd) {
+        appendable &= scanEnd();
+      }
+      return name;
+    } catch (YAMLException | IllegalArgumentException e) {
+      throw new TapeLoadException("Invalid tape", e);
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  private String scanTape(Callback callback) {
+    Event event = next();
+    while (event instanceof StreamStartEvent || event instanceof DocumentStartEvent) {
+      event = next();
+    }
+    if (!(event instanceof MappingStartEvent)
+        || !YamlTape.TAPE_TAG.getValue().equals(((MappingStartEvent) event).getTag())) {
+      throw new TapeLoadException("Invalid tape: expected a !tape mapping");
+    }
+    String name = null;
+    while (!((event = next()) instanceof MappingEndEvent)) {
+      String key = scalar(event);
+      appendable = false;
+      if ("name".equals(key)) {
+        name = nullableScalar(next());
+      } else if ("interactions".equals(key)) {
+        if (!scanInteractions(event, callback)) {
+          break;
+        }
+      } else {
+        throw unknownKey(key);
+      }
+    }
+    return name;
+  }
+
+  /** @return `false` if the callback asked to stop. */
+  private boolean scanInteractions(Event key, Callback callback) {
+    Event event = next();
+    if (isNull(event)) {
+      return true;
+    }
+    expect(event, SequenceStartEvent.class);
+    // Only a block sequence can start on a later line at the left margin.
+    appendable = event.getStartMark().getColumn() == 0
+        && event.getStartMark().getLine() > key.getStartMark().getLine();
+    while (!((event = next()) instanceof SequenceEndEvent)) {
+      if (!callback.onInteraction(interaction(event))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return `true` if the tape was the only document and the stream ends on a new line. */
+  private boolean scanEnd() {
+    Event event = next();
+    if (!(event instanceof DocumentEndEvent) || ((DocumentEndEvent) event).getExplicit()) {
+      return false;
+    }
+    event = next();
+    return event instanceof StreamEndEvent && event.getStartMark().getColumn() == 0;
+  }
+
+  private YamlRecordedInteraction interaction(Event start) {
+    expect(start, MappingStartEvent.class);
+    Date recorded = null;
+    YamlRecordedRequest request = new YamlRecordedRequest();
+    YamlRecordedResponse response = new YamlRecordedResponse();
+    Event event;
+    while (!((event = next()) instanceof MappingEndEvent)) {
+      String key = scalar(event);
+      if ("recorded".equals(key)) {
+        recorded = timestamp(scalar(next()));
+      } else if ("request".equals(key)) {
+        request = request(next());
+      } else if ("response".equals(key)) {
+        response = response(next());
+      } else {
+        throw unknownKey(key);
+      }
+    }
+    return new YamlRecordedInteraction(recorded, request, response);
+  }
+
+  private YamlRecordedRequest request(Event start) {
+    expect(start, MappingStartEvent.class);
+    String method = null;
+    URI uri = null;
+    Map<String, String> headers = Collections.emptyMap();
+    Object body = null;
+    Event event;
+    while (!((event = next()) instanceof MappingEndEvent)) {
+      String key = scalar(event);
+      if ("method".equals(key)) {
+        method = nullableScalar(next());
+      } else if ("uri".equals(key)) {
+        String value = nullableScalar(next());
+        uri = value != null ? URI.create(value) : null;
+      } else if ("headers".equals(key)) {
+        headers = headers(next());
+      } else if ("body".equals(key)) {
+        body = body(next());
+      } else {
+        throw unknownKey(key);
+      }
+    }
+    return new YamlRecordedRequest(headers, body, method, uri);
+  }
+
+  private YamlRecordedResponse response(Event start) {
+    expect(start, MappingStartEvent.class);
+    int status = 0;
+    Map<String, String> headers = Collections.emptyMap();
+    Object body = null;
+    Event event;
+    while (!((event = next()) instanceof MappingEndEvent)) {
+      String key = scalar(event);
+      if ("status".equals(key)) {
+        status = Integer.parseInt(scalar(next()));
+      } else if ("headers".equals(key)) {
+        headers = headers(next());
+      } else if ("body".equals(key)) {
+        body = body(next());
+      } else {
+        throw unknownKey(key);
+      }
+    }
+    return new YamlRecordedResponse(headers, body, status);
+  }
+
+  private Map<String, String> headers(Event start) {
+    if (isNull(start)) {
+      return Collections.emptyMap();
+    }
+    expect(start, MappingStartEvent.class);
+    Map<String, String> headers = new LinkedHashMap<>();
+    Event event;
+    while (!((event = next()) instanceof MappingEndEvent)) {
+      headers.put(scalar(event), nullableScalar(next()));
+    }
+    return headers;
+  }
+
+  /**
+   * @return a {@code byte[]} for {@code !!binary} scalars, a stored body for references into the
+   * body store and a {@link String} otherwise.
+   */
+  private Object body(Event event) {
+    if (isNull(event)) {
+      return null;
+    }
+    String value = scalar(event);
+    String tag = ((ScalarEvent) event).getTag();
+    if (Tag.BINARY.getValue().equals(tag)) {
+      return Base64Coder.decode(value.replaceAll("\\s", "").toCharArray());
+    } else if (BodyStore.TAG.getValue().equals(tag)) {
+      if (bodyStore == null) {
+        throw new TapeLoadException("Invalid tape: body references require a StreamTapeRoot");
+      }
+      return bodyStore.get(value);
+    }
+    return value;
+  }
+
+  /** Parses a timestamp the way SnakeYAML does for the bean properties. */
+  private Date timestamp(String value) {
+    Object timestamp = scalars.load(value);
+    if (!(timestamp instanceof Date)) {
+      throw new TapeLoadException("Invalid tape: " + value + " is not a timestamp");
+    }
+    return (Date) timestamp;
+  }
+
+  private String nullableScalar(Event event) {
+    return isNull(event) ? null : scalar(event);
+  }
+
+  private static String scalar(Event event) {
+    expect(event, ScalarEvent.class);
+    return ((ScalarEvent) event).getValue();
+  }
+
+  private static boolean isNull(Event event) {
+    if (!(event instanceof ScalarEvent)) {
+      return false;
+    }
+    ScalarEvent scalar = (ScalarEvent) event;
+    return scalar.getImplicit().canOmitTagInPlainScalar()
+        && Tag.NULL.equals(RESOLVER.resolve(NodeId.scalar, scalar.getValue(), true));
+  }
+
+  private static void expect(Event event, Class<? extends Event> type) {
+    if (!type.isInstance(event)) {
+      throw new TapeLoadException("Invalid tape: unexpected " + event);
+    }
+  }
+
+  private static UnsupportedTapeException unknownKey(String key) {
+    return new UnsupportedTapeException("Unsupported tape: unknown key " + key);
+  }
+
+  private Event next() {
+    if (!events.hasNext()) {
+      throw new TapeLoadException("Invalid tape: unexpected end of document");
+    }
+    Event event = events.next();
+    if (event instanceof AliasEvent) {
+      throw new UnsupportedTapeException("Unsupported tape: aliases can't be scanned");
+    }
+    return event;
+  }
+}
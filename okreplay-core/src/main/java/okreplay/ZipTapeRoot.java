@@ -0,0 +1,264 @@
+package okreplay;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Stores all tapes in a single zip archive instead of one file each. The central directory of the
+ * archive is read once when the root is created, so checking whether a tape exists doesn't touch
+ * the file system and reading a tape only seeks within the archive.
+ * <p>
+ * Written tapes are kept in memory and written back to the archive together by {@link #flush()},
+ * which is also called by {@link #close()} and when the JVM shuts down, after the tapes still
+ * being written in the background. Tapes can't be read while the archive is being flushed, or once
+ * it is closed, but tapes written after that are still written by the next flush.
+ */
+public class ZipTapeRoot implements StreamTapeRoot, Closeable, Flushable {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Logger LOG = Logger.getLogger(ZipTapeRoot.class.getSimpleName());
+  private final File archive;
+  /** The names of the tapes in the archive. */
+  private final Set<String> entries = new HashSet<>();
+  /** Tapes written since the archive was last flushed. */
+  private final Map<String, byte[]> pending = new LinkedHashMap<>();
+  private ZipFile zipFile;
+  private boolean closed;
+  private boolean flushOnShutdown;
+
+  public ZipTapeRoot(File archive) {
+    this.archive = archive;
+    open();
+  }
+
+  @Override public Reader readerFor(String tapeFileName) {
+    return new BufferedReader(new InputStreamReader(inputStreamFor(tapeFileName), UTF_8));
+  }
+
+  @Override public Writer writerFor(String tapePath) {
+    return Util.newWriter(outputStreamFor(tapePath), UTF_8);
+  }
+
+  @Override public synchronized InputStream inputStreamFor(String tapeFileName) {
+    byte[] written = pending.get(tapeFileName);
+    if (written != null) {
+      return new ByteArrayInputStream(written);
+    }
+    if (!entries.contains(tapeFileName)) {
+      throw new RuntimeException(new FileNotFoundException(archive + "!/" + tapeFileName));
+    }
+    if (zipFile == null) {
+      throw new IllegalStateException("the archive is closed");
+    }
+    try {
+      return zipFile.getInputStream(zipFile.getEntry(tapeFileName));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override public OutputStream outputStreamFor(String tapePath) {
+    return new PendingOutputStream(tapePath);
+  }
+
+  @Override public OutputStream appendingStreamFor(String tapePath) {
+    PendingOutputStream out = new PendingOutputStream(tapePath);
+    try {
+      InputStream in = inputStreamFor(tapePath);
+      try {
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+          out.write(buffer, 0, read);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      out.abort();
+      throw new RuntimeException(e);
+    }
+    return out;
+  }
+
+  @Override public synchronized boolean tapeExists(String tapeFileName) {
+    return pending.containsKey(tapeFileName) || entries.contains(tapeFileName);
+  }
+
+  /** Returns the archive file. */
+  @Override public File get() {
+    return archive;
+  }
+
+  /**
+   * Writes the tapes written since the last flush to the archive. The archive is rebuilt next to
+   * the existing one and then renamed over it, so it stays intact if writing fails.
+   */
+  @Override public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    LOG.info(String.format("writing %d tapes to archive %s...", pending.size(), archive));
+    File parent = archive.getAbsoluteFile().getParentFile();
+    //noinspection ResultOfMethodCallIgnored
+    parent.mkdirs();
+    File temp = new File(parent, archive.getName() + ".tmp");
+    boolean replaced = false;
+    try {
+      // Tapes written after the archive was closed still need the ones already in it.
+      ZipFile source = zipFile != null || entries.isEmpty() ? zipFile : new ZipFile(archive);
+      try {
+        write(temp, source);
+      } finally {
+        if (source != zipFile) {
+          source.close();
+        }
+      }
+      closeZipFile();
+      if (!temp.renameTo(archive) && !(archive.delete() && temp.renameTo(archive))) {
+        throw new IOException("Failed to replace " + archive);
+      }
+      replaced = true;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      if (!replaced) {
+        //noinspection ResultOfMethodCallIgnored
+        temp.delete();
+      }
+    }
+    entries.addAll(pending.keySet());
+    pending.clear();
+    if (!closed) {
+      open();
+    }
+  }
+
+  /** Flushes any written tapes and closes the archive. */
+  @Override public synchronized void close() {
+    closed = true;
+    try {
+      flush();
+    } finally {
+      closeZipFile();
+      if (flushOnShutdown) {
+        WriteBehind.SHARED.removeFlushOnShutdown(this);
+        flushOnShutdown = false;
+      }
+    }
+  }
+
+  /** Writes the pending tapes and the others in {@code source} to a new archive. */
+  private void write(File file, @Nullable ZipFile source) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      byte[] buffer = new byte[8192];
+      for (String name : entries) {
+        if (pending.containsKey(name)) {
+          continue;
+        }
+        ZipEntry entry = source.getEntry(name);
+        ZipEntry copy = new ZipEntry(name);
+        copy.setTime(entry.getTime());
+        out.putNextEntry(copy);
+        InputStream in = source.getInputStream(entry);
+        try {
+          for (int read; (read = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, read);
+          }
+        } finally {
+          in.close();
+        }
+        out.closeEntry();
+      }
+      for (Map.Entry<String, byte[]> tape : pending.entrySet()) {
+        out.putNextEntry(new ZipEntry(tape.getKey()));
+        out.write(tape.getValue());
+        out.closeEntry();
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private synchronized void putPending(String tapePath, byte[] content) {
+    pending.put(tapePath, content);
+    if (!flushOnShutdown) {
+      // Flushed after the tapes still being written behind, which may end up here.
+      WriteBehind.SHARED.flushOnShutdown(this);
+      flushOnShutdown = true;
+    }
+  }
+
+  private void open() {
+    closeZipFile();
+    entries.clear();
+    if (!archive.isFile()) {
+      return;
+    }
+    try {
+      zipFile = new ZipFile(archive);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+    while (zipEntries.hasMoreElements()) {
+      ZipEntry entry = zipEntries.nextElement();
+      if (!entry.isDirectory()) {
+        entries.add(entry.getName());
+      }
+    }
+  }
+
+  private void closeZipFile() {
+    if (zipFile != null) {
+      try {
+        zipFile.close();
+      } catch (IOException ignored) {
+      }
+      zipFile = null;
+    }
+  }
+
+  /** Collects a written tape and hands it over to the root once it is closed. */
+  private final class PendingOutputStream extends ByteArrayOutputStream implements Abortable {
+    private final String tapePath;
+    private boolean closed;
+
+    PendingOutputStream(String tapePath) {
+      this.tapePath = tapePath;
+    }
+
+    @Override public void close() {
+      if (!closed) {
+        closed = true;
+        putPending(tapePath, toByteArray());
+      }
+    }
+
+    @Override public void abort() {
+      closed = true;
+    }
+  }
+}
@@ -20,6 +20,9 @@ open class AndroidTapeRoot(private val assetManager: AssetManager, testName: Str
       // directory instead.
       assetManager.open("$assetsDirPrefix/$tapeFileName")
 
+  override fun inputStreamFor(tapeFileName: String) =
+      assetManager.openStream("$assetsDirPrefix/$tapeFileName")
+
   override fun tapeExists(tapeFileName: String): Boolean =
       assetManager.exists(assetsDirPrefix, tapeFileName) == true
 
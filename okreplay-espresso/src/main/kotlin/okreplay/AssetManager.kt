@@ -1,12 +1,16 @@
 package okreplay
 
 import android.content.Context
+import java.io.InputStream
 import java.io.Reader
 
 open class AssetManager(internal val context: Context) {
   fun open(file: String): Reader =
       context.assets.open(file).bufferedReader()
 
+  fun openStream(file: String): InputStream =
+      context.assets.open(file)
+
   fun exists(path: String, fileName: String) =
       context.assets.list(path)?.contains(fileName)
 }
\ No newline at end of file
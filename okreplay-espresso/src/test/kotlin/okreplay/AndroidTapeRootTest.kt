@@ -12,6 +12,7 @@ import org.robolectric.RuntimeEnvironment
 import org.robolectric.annotation.Config
 import okreplay.espresso.BuildConfig
 import org.mockito.BDDMockito.given
+import java.io.InputStream
 import java.io.Reader
 
 @RunWith(RobolectricTestRunner::class)
@@ -49,4 +50,10 @@ class AndroidTapeRootTest {
     given(assetManager.open("tapes/testName/foo.txt")).willReturn(reader)
     assertThat(tapeRoot.readerFor("foo.txt")).isEqualTo(reader)
   }
-}
\ No newline at end of file
+
+  @Test fun readStream() {
+    val stream = mock(InputStream::class.java)
+    given(assetManager.openStream("tapes/testName/foo.tape")).willReturn(stream)
+    assertThat(tapeRoot.inputStreamFor("foo.tape")).isEqualTo(stream)
+  }
+}
@@ -0,0 +1,296 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static okreplay.Fixtures.request
+import static okreplay.Fixtures.response
+import static okreplay.TapeMode.READ_WRITE
+
+@Unroll
+class AppendingTapeWriteSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") File tapeRoot = Files.createTempDir()
+
+  void "new interactions are appended to an existing #extension tape file"() {
+    given:
+    def file = new File(tapeRoot, "append_spec" + extension)
+    def tape = loader.loadTape("append spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+    loader.writeTape(tape)
+    def written = file.bytes
+
+    when:
+    tape = loader.loadTape("append spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+
+    then:
+    !tape.dirty
+    extension != ".yaml" || file.bytes.take(written.length) == written
+
+    when:
+    def loaded = loader.loadTape("append spec")
+
+    then:
+    loaded.size() == 2
+    loaded.seekAndPlay(request("http://freeside.co/1")).bodyAsText() == "1"
+    loaded.seekAndPlay(request("http://freeside.co/2")).bodyAsText() == "2"
+
+    where:
+    extension | loader
+    ".yaml"   | new YamlTapeLoader(tapeRoot)
+    ".tape"   | new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+  }
+
+  void "writing the same tape twice does not append interactions again to a #extension tape"() {
+    given:
+    def tape = loader.loadTape("append twice spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+    loader.writeTape(tape)
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+    tape.record(request("http://freeside.co/3"), response("3"))
+    loader.writeTape(tape)
+
+    expect:
+    loader.loadTape("append twice spec").size() == 3
+
+    where:
+    extension | loader
+    ".yaml"   | new YamlTapeLoader(tapeRoot)
+    ".tape"   | new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+  }
+
+  void "a #extension tape is rewritten when a persisted interaction is overwritten"() {
+    given:
+    def tape = loader.loadTape("overwrite spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("first"))
+    loader.writeTape(tape)
+
+    when:
+    tape = loader.loadTape("overwrite spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("second"))
+    loader.writeTape(tape)
+    def loaded = loader.loadTape("overwrite spec")
+
+    then:
+    loaded.size() == 1
+    loaded.seekAndPlay(request("http://freeside.co/1")).bodyAsText() == "second"
+
+    where:
+    extension | loader
+    ".yaml"   | new YamlTapeLoader(tapeRoot)
+    ".tape"   | new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+  }
+
+  void "a #extension tape read from elsewhere than it is written to is rewritten"() {
+    given: "the tape in the assets and a stale copy where tapes are written"
+    def assets = new File(tapeRoot, "assets")
+    def written = new File(tapeRoot, "written")
+    [assets: "1", written: "stale"].each { dir, body ->
+      def plainLoader = loaderFor(new DefaultTapeRoot(new File(tapeRoot, dir)))
+      def tape = plainLoader.loadTape("assets spec")
+      tape.mode = READ_WRITE
+      tape.record(request("http://freeside.co/1"), response(body))
+      plainLoader.writeTape(tape)
+    }
+    def loader = loaderFor(new AssetsTapeRoot(assets, written))
+
+    when:
+    def tape = loader.loadTape("assets spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+    def loaded = loaderFor(new DefaultTapeRoot(written)).loadTape("assets spec")
+
+    then:
+    loaded.size() == 2
+    loaded.seekAndPlay(request("http://freeside.co/1")).bodyAsText() == "1"
+    loaded.seekAndPlay(request("http://freeside.co/2")).bodyAsText() == "2"
+
+    where:
+    extension | loaderFor
+    ".yaml"   | { root -> new YamlTapeLoader(root) }
+    ".tape"   | { root -> new BinaryTapeLoader(root) }
+  }
+
+  void "a yaml tape is rewritten if it does not end with its interactions"() {
+    given:
+    def file = new File(tapeRoot, "name_last_spec.yaml")
+    file.text = """\
+!tape
+interactions:
+- recorded: 2011-08-23T22:41:40.000Z
+  request:
+    method: GET
+    uri: http://freeside.co/1
+  response:
+    status: 200
+    body: '1'
+name: name last spec
+"""
+    def loader = new YamlTapeLoader(tapeRoot)
+
+    when:
+    def tape = loader.loadTape("name last spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+
+    then:
+    file.text.startsWith("!tape\nname: name last spec\n")
+    loader.loadTape("name last spec").size() == 2
+  }
+
+  void "a binary tape is rewritten if a new header name has to be added"() {
+    given:
+    def loader = new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+    def tape = loader.loadTape("new header spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+    loader.writeTape(tape)
+
+    when:
+    tape = loader.loadTape("new header spec")
+    tape.mode = READ_WRITE
+    tape.record(new RecordedRequest.Builder()
+        .url("http://freeside.co/2")
+        .addHeader("Accept", "text/plain")
+        .build(), response("2"))
+    loader.writeTape(tape)
+    def loaded = loader.loadTape("new header spec")
+
+    then:
+    loaded.size() == 2
+    loaded.interactions[1].request().headers() == [Accept: "text/plain"]
+  }
+
+  void "a binary tape is appended to in place"() {
+    given:
+    def loader = new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+    def file = new File(tapeRoot, "in_place_spec.tape")
+    def tape = loader.loadTape("in place spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+    loader.writeTape(tape)
+    def length = file.length()
+    def opened = new RandomAccessFile(file, "r")
+
+    when:
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+
+    then:
+    opened.length() == file.length()
+    opened.length() > length
+
+    cleanup:
+    opened?.close()
+  }
+
+  void "a binary tape whose append was cut off before the count was updated can be read"() {
+    given:
+    def loader = new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+    def file = new File(tapeRoot, "cut_off_spec.tape")
+    def tape = loader.loadTape("cut off spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+    loader.writeTape(tape)
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+    writeCount(file, 1)
+
+    expect:
+    loader.loadTape("cut off spec").size() == 1
+    with(new MappedTapeLoader(new DefaultTapeRoot(tapeRoot)).loadTape("cut off spec")) {
+      size() == 1
+      seekAndPlay(request("http://freeside.co/1")).bodyAsText() == "1"
+    }
+
+    when:
+    tape = loader.loadTape("cut off spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/3"), response("3"))
+    loader.writeTape(tape)
+    def loaded = loader.loadTape("cut off spec")
+
+    then:
+    loaded.size() == 2
+    loaded.seekAndPlay(request("http://freeside.co/1")).bodyAsText() == "1"
+    loaded.seekAndPlay(request("http://freeside.co/3")).bodyAsText() == "3"
+    new MappedTapeLoader(new DefaultTapeRoot(tapeRoot)).loadTape("cut off spec")
+        .seekAndPlay(request("http://freeside.co/3")).bodyAsText() == "3"
+  }
+
+  void "a binary tape whose offset table was cut off can be mapped and is rewritten"() {
+    given:
+    def loader = new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+    def file = new File(tapeRoot, "cut_off_table_spec.tape")
+    def tape = loader.loadTape("cut off table spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+    def cutOff = new RandomAccessFile(file, "rw")
+    cutOff.setLength(file.length() - 3)
+    cutOff.close()
+
+    expect:
+    new MappedTapeLoader(new DefaultTapeRoot(tapeRoot)).loadTape("cut off table spec")
+        .seekAndPlay(request("http://freeside.co/2")).bodyAsText() == "2"
+
+    when:
+    tape = loader.loadTape("cut off table spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/3"), response("3"))
+    loader.writeTape(tape)
+
+    then:
+    new MappedTapeLoader(new DefaultTapeRoot(tapeRoot)).loadTape("cut off table spec")
+        .seekAndPlay(request("http://freeside.co/3")).bodyAsText() == "3"
+  }
+
+  /** Reads tapes from one directory and writes them to another, like the Android tape root. */
+  private static class AssetsTapeRoot extends DefaultTapeRoot {
+    private final DefaultTapeRoot assets
+
+    AssetsTapeRoot(File assets, File root) {
+      super(root)
+      this.assets = new DefaultTapeRoot(assets)
+    }
+
+    @Override Reader readerFor(String tapeFileName) {
+      assets.readerFor(tapeFileName)
+    }
+
+    @Override InputStream inputStreamFor(String tapeFileName) {
+      assets.inputStreamFor(tapeFileName)
+    }
+
+    @Override boolean tapeExists(String tapeFileName) {
+      assets.tapeExists(tapeFileName)
+    }
+  }
+
+  /** Overwrites the interaction count in the header of a binary tape. */
+  private static void writeCount(File file, int count) {
+    def tapeFile = new RandomAccessFile(file, "rw")
+    try {
+      tapeFile.skipBytes(8)
+      tapeFile.skipBytes(tapeFile.readInt())
+      def headerNames = tapeFile.readInt()
+      headerNames.times { tapeFile.skipBytes(tapeFile.readInt()) }
+      tapeFile.writeInt(count)
+    } finally {
+      tapeFile.close()
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+import static okreplay.Headers.X_OKREPLAY
+import static okreplay.TapeMode.READ_ONLY
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class AsyncRecordingSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  def recordingThreads = new CopyOnWriteArrayList<String>()
+  def configuration = new OkReplayConfig.Builder()
+      .tapeRoot(tapeRoot)
+      .defaultMode(READ_WRITE)
+      .asyncRecording(true)
+      .interceptor(new OkReplayInterceptor())
+      .addEventListener(new OkReplayEventListener() {
+        @Override void interactionRecorded(Tape tape, Request request, long tookNanos) {
+          recordingThreads << Thread.currentThread().name
+        }
+      })
+      .build()
+  def client = new OkHttpClient.Builder()
+      .addInterceptor(configuration.interceptor())
+      .build()
+  def recorder = new Recorder(configuration)
+
+  void setupSpec() {
+    endpoint.start()
+  }
+
+  void "interactions are recorded off the calling thread and written when the recorder stops"() {
+    given:
+    recorder.start("async recording spec")
+    def tape = recorder.tape
+    20.times { endpoint.enqueue(new MockResponse().setBody("response $it")) }
+
+    when:
+    def responses = (0..<20).collect {
+      def response = client.newCall(request("/$it")).execute()
+      [response.header(X_OKREPLAY), response.body().string()]
+    }
+    recorder.stop()
+
+    then:
+    responses == (0..<20).collect { ["REC", "response $it"] }
+    tape.size() == 20
+    recordingThreads.size() == 20
+    !recordingThreads.contains(Thread.currentThread().name)
+
+    when:
+    recorder.start("async recording spec", READ_ONLY)
+    def played = client.newCall(request("/19")).execute()
+
+    then:
+    played.header(X_OKREPLAY) == "PLAY"
+    played.body().string() == "response 19"
+
+    cleanup:
+    recorder.stop()
+  }
+
+  void "responses completing after the recorder is stopped are dropped"() {
+    given:
+    def dropped = new CopyOnWriteArrayList<String>()
+    def streamingConfiguration = new OkReplayConfig.Builder()
+        .tapeRoot(tapeRoot)
+        .defaultMode(READ_WRITE)
+        .asyncRecording(true)
+        .streamRecording(true)
+        .interceptor(new OkReplayInterceptor())
+        .addEventListener(new OkReplayEventListener() {
+          @Override void interactionDropped(Tape tape, Request request) {
+            dropped << request.url().encodedPath()
+          }
+        })
+        .build()
+    def streamingClient = new OkHttpClient.Builder()
+        .addInterceptor(streamingConfiguration.interceptor())
+        .build()
+    def streamingRecorder = new Recorder(streamingConfiguration)
+    streamingRecorder.start("late recording spec")
+    def tape = streamingRecorder.tape
+    endpoint.enqueue(new MockResponse().setBody("late"))
+
+    when:
+    def response = streamingClient.newCall(request("/late")).execute()
+    streamingRecorder.stop()
+    def body = response.body().string()
+
+    then:
+    body == "late"
+    dropped == ["/late"]
+    tape.size() == 0
+  }
+
+  void "interactions that were recorded are written when recording another failed"() {
+    given: "a file in place of the body store, so recording a large body fails"
+    def failingRoot = Files.createTempDir()
+    new File(failingRoot, "bodies").text = "not a directory"
+    def failingConfiguration = new OkReplayConfig.Builder()
+        .tapeRoot(failingRoot)
+        .defaultMode(READ_WRITE)
+        .asyncRecording(true)
+        .bodyStoreThreshold(16)
+        .interceptor(new OkReplayInterceptor())
+        .build()
+    def failingClient = new OkHttpClient.Builder()
+        .addInterceptor(failingConfiguration.interceptor())
+        .build()
+    def failingRecorder = new Recorder(failingConfiguration)
+    failingRecorder.start("failed recording spec")
+    endpoint.enqueue(new MockResponse().setBody("small"))
+    endpoint.enqueue(new MockResponse().setBody("a body too large to be kept inline"))
+
+    when:
+    failingClient.newCall(request("/small")).execute().body().string()
+    failingClient.newCall(request("/large")).execute().body().string()
+    failingRecorder.stop()
+
+    then:
+    thrown IllegalStateException
+    failingRecorder.tape == null
+    new File(failingRoot, "failed_recording_spec.yaml").text.contains("body: small")
+
+    when:
+    failingRecorder.start("failed recording spec", READ_ONLY)
+    def played = failingClient.newCall(request("/small")).execute()
+
+    then:
+    played.header(X_OKREPLAY) == "PLAY"
+    played.body().string() == "small"
+
+    cleanup:
+    failingRecorder.stop()
+    failingRoot.deleteDir()
+  }
+
+  private okhttp3.Request request(String path) {
+    new okhttp3.Request.Builder().url(endpoint.url(path)).build()
+  }
+}
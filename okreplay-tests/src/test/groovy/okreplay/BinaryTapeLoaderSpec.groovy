@@ -0,0 +1,157 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okhttp3.ResponseBody
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import static okreplay.TapeMode.READ_WRITE
+
+class BinaryTapeLoaderSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") File tapeRoot = Files.createTempDir()
+  @Shared def loader = new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+
+  void "a tape survives a round trip through the binary format"() {
+    given:
+    def tape = loader.loadTape("binary tape loader spec")
+    tape.mode = READ_WRITE
+
+    and:
+    def textRequest = new RecordedRequest.Builder()
+        .url("http://freeside.co/betamax")
+        .method("POST", RequestBody.create(MediaType.parse("text/plain"), "q=1"))
+        .build()
+    def binaryRequest = new RecordedRequest.Builder()
+        .url("http://freeside.co/image.png")
+        .addHeader("Accept", "image/png")
+        .build()
+    def image = [0, 1, 2, 127, -128, -1] as byte[]
+    tape.record(textRequest, new RecordedResponse.Builder()
+        .code(200)
+        .addHeader("Content-Language", "en-GB")
+        .body(ResponseBody.create(MediaType.parse("text/plain;charset=UTF-8"), "O HAI! ✓"))
+        .build())
+    tape.record(binaryRequest, new RecordedResponse.Builder()
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("image/png"), image))
+        .build())
+
+    when:
+    loader.writeTape(tape)
+    def loaded = loader.loadTape("binary tape loader spec")
+
+    then:
+    new File(tapeRoot, "binary_tape_loader_spec.tape").isFile()
+    loaded.name == tape.name
+    loaded.size() == 2
+
+    and:
+    with(loaded.seekAndPlay(textRequest)) {
+      code() == 200
+      header("Content-Language") == "en-GB"
+      bodyAsText() == "O HAI! ✓"
+    }
+    loaded.seekAndPlay(binaryRequest).body() == image
+  }
+
+  void "the trailing offset table points at each interaction"() {
+    given:
+    def tape = loader.loadTape("binary offset table spec")
+    tape.mode = READ_WRITE
+    3.times { i ->
+      tape.record(new RecordedRequest.Builder().url("http://freeside.co/$i").build(),
+          new RecordedResponse.Builder()
+              .code(200 + i)
+              .body(ResponseBody.create(MediaType.parse("text/plain"), "$i"))
+              .build())
+    }
+    loader.writeTape(tape)
+
+    when:
+    def bytes = new File(tapeRoot, "binary_offset_table_spec.tape").bytes
+    def buffer = java.nio.ByteBuffer.wrap(bytes)
+    def tableOffset = buffer.getLong(bytes.length - 8)
+
+    then:
+    tableOffset == bytes.length - 8 * 4
+    (0..<3).every { i ->
+      def offset = buffer.getLong((int) tableOffset + 8 * i)
+      def source = new okio.Buffer().write(bytes, (int) offset, bytes.length - (int) offset)
+      BinaryTapeLoader.readInteraction(source, ["Content-Type"] as String[])
+          .toImmutable().response().code() == 200 + i
+    }
+  }
+
+  void "yaml tapes can be converted to binary tapes"() {
+    given:
+    def root = Files.createTempDir()
+    new File(root, "converted_tape.yaml").text = """\
+!tape
+name: converted tape
+interactions:
+- recorded: 2011-08-23T22:41:40.000Z
+  request:
+    method: GET
+    uri: http://icanhascheezburger.com/
+  response:
+    status: 200
+    headers: {Content-Type: text/plain}
+    body: O HAI!
+"""
+
+    when:
+    def converted = TapeConverter.yamlToBinary(root)
+    def tape = new BinaryTapeLoader(new DefaultTapeRoot(root)).loadTape("converted tape")
+
+    then:
+    converted == 1
+    tape.size() == 1
+    tape.seekAndPlay(new RecordedRequest.Builder().url("http://icanhascheezburger.com/").build())
+        .bodyAsText() == "O HAI!"
+
+    cleanup:
+    root.deleteDir()
+  }
+
+  void "yaml tapes with stored bodies can be converted to binary tapes"() {
+    given:
+    def root = Files.createTempDir()
+    def payload = (1..100).collect { "line $it" }.join("\n")
+    def request = new RecordedRequest.Builder().url("http://freeside.co/large").build()
+    def yamlLoader = new YamlTapeLoader(new DefaultTapeRoot(root), 64)
+    def yamlTape = yamlLoader.loadTape("stored body tape")
+    yamlTape.mode = READ_WRITE
+    yamlTape.record(request, new RecordedResponse.Builder()
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("text/plain"), payload))
+        .build())
+    yamlLoader.writeTape(yamlTape)
+
+    when:
+    def converted = TapeConverter.yamlToBinary(root)
+    def tape = new BinaryTapeLoader(new DefaultTapeRoot(root)).loadTape("stored body tape")
+
+    then:
+    new File(root, "stored_body_tape.yaml").text.contains("body: !body ")
+    converted == 1
+    tape.seekAndPlay(request).bodyAsText() == payload
+
+    cleanup:
+    root.deleteDir()
+  }
+
+  void "binary tapes are selected through the configuration"() {
+    given:
+    def configuration = new OkReplayConfig.Builder()
+        .tapeRoot(tapeRoot)
+        .tapeFormat(TapeFormat.BINARY)
+        .interceptor(new OkReplayInterceptor())
+        .build()
+
+    expect:
+    configuration.tapeFormat.loader(configuration) instanceof BinaryTapeLoader
+  }
+}
@@ -0,0 +1,134 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import static okreplay.Fixtures.request
+import static okreplay.Fixtures.response
+import static okreplay.TapeMode.READ_WRITE
+
+class BodyStoreSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") File tapeRoot = Files.createTempDir()
+  @Shared def loader = new YamlTapeLoader(new DefaultTapeRoot(tapeRoot), 64)
+  @Shared def payload = (1..100).collect { "line $it" }.join("\n")
+
+  void "large bodies are stored once for all tapes"() {
+    given:
+    ["body store spec 1", "body store spec 2"].each { name ->
+      def tape = loader.loadTape(name)
+      tape.mode = READ_WRITE
+      tape.record(request("http://freeside.co/large"), response(payload))
+      tape.record(request("http://freeside.co/small"), response("O HAI!"))
+      loader.writeTape(tape)
+    }
+
+    expect:
+    new File(tapeRoot, "bodies").list().length == 1
+    new File(tapeRoot, "body_store_spec_1.yaml").text.contains("body: !body ")
+    new File(tapeRoot, "body_store_spec_1.yaml").text.contains("body: O HAI!")
+  }
+
+  void "stored bodies are played back"() {
+    given:
+    def tape = loader.loadTape("body store playback spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/large"), response(payload))
+    loader.writeTape(tape)
+
+    when:
+    def loaded = loader.loadTape("body store playback spec")
+
+    then:
+    loaded.interactions[0].response().body() instanceof BodyStore.StoredBody
+    with(loaded.seekAndPlay(request("http://freeside.co/large"))) {
+      code() == 200
+      bodyAsText() == payload
+    }
+  }
+
+  void "large bodies are moved to the store as soon as they are recorded"() {
+    given:
+    def tape = loader.loadTape("body store recording spec")
+    tape.mode = READ_WRITE
+
+    when:
+    tape.record(request("http://freeside.co/recorded"), response(payload + "!"))
+    tape.record(request("http://freeside.co/small"), response("O HAI!"))
+
+    then:
+    tape.interactions[0].response().body() instanceof BodyStore.StoredBody
+    tape.interactions[1].response().body() == "O HAI!"
+    tape.seekAndPlay(request("http://freeside.co/recorded")).bodyAsText() == payload + "!"
+  }
+
+  void "references that are not a SHA-256 hash are rejected"() {
+    given:
+    def store = new BodyStore(new DefaultTapeRoot(tapeRoot))
+
+    when:
+    store.get(reference)
+
+    then:
+    thrown TapeLoadException
+
+    where:
+    reference << [
+        "../../../../etc/" + "x" * 48 + ":1",
+        "A" * 64 + ":1",
+        "a" * 63 + ":1",
+        "a" * 64 + ":one"
+    ]
+  }
+
+  void "a tape whose stored body can't be read leaves the old tape file as it was"() {
+    given:
+    def root = Files.createTempDir()
+    def tape = new YamlTapeLoader(new DefaultTapeRoot(root), 64).loadTape("unreadable body spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/large"), response(payload))
+    new File(root, "bodies").deleteDir()
+
+    and: "an old file that can't be appended to, so the tape is written as a whole"
+    def file = new File(root, "unreadable_body_spec.tape")
+    file.text = "old tape"
+
+    when:
+    new BinaryTapeLoader(new DefaultTapeRoot(root)).writeTape(tape)
+
+    then:
+    thrown RuntimeException
+    file.text == "old tape"
+    root.list() as List == ["unreadable_body_spec.tape"]
+
+    cleanup:
+    root.deleteDir()
+  }
+
+  void "bodies are kept inline by default"() {
+    given:
+    def inlineLoader = new YamlTapeLoader(new DefaultTapeRoot(tapeRoot))
+    def tape = inlineLoader.loadTape("inline body spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/large"), response(payload))
+    inlineLoader.writeTape(tape)
+
+    expect:
+    !new File(tapeRoot, "inline_body_spec.yaml").text.contains("!body")
+  }
+
+  void "the threshold is passed on from the configuration"() {
+    given:
+    def properties = new Properties()
+    properties.setProperty("okreplay.bodyStoreThreshold", "1024")
+    def configuration = new OkReplayConfig.Builder()
+        .withProperties(properties)
+        .tapeRoot(tapeRoot)
+        .interceptor(new OkReplayInterceptor())
+        .build()
+
+    expect:
+    configuration.bodyStoreThreshold == 1024
+  }
+}
@@ -34,4 +34,37 @@ class ComposedMatchRuleSpec extends Specification {
     [method]      | "GET"   | "http://freeside.co/" | "GET"   | "http://freeside.co/betamax" | true
     [method, uri] | "GET"   | "http://freeside.co/" | "POST"  | "http://freeside.co/"        | false
   }
+
+  void "rules are evaluated cheapest first"() {
+    given:
+    def evaluated = []
+    def expensive = new CostedMatchRule() {
+      @Override boolean isMatch(Request a, Request b) {
+        evaluated << "expensive"
+        true
+      }
+
+      @Override int cost() {
+        1000
+      }
+    }
+    def undeclared = { Request a, Request b ->
+      evaluated << "undeclared"
+      true
+    } as MatchRule
+    def rule = ComposedMatchRule.of(expensive, undeclared, MatchRules.body, method)
+
+    and:
+    def get = new RecordedRequest.Builder().method("GET", null).url("http://freeside.co/").build()
+    def head = new RecordedRequest.Builder().method("HEAD", null).url("http://freeside.co/").build()
+
+    expect:
+    !rule.isMatch(get, head)
+    evaluated.empty
+
+    and:
+    rule.isMatch(get, get)
+    evaluated == ["undeclared", "expensive"]
+    rule.cost() == 1000 + CostedMatchRule.DEFAULT_COST + MatchRules.body.cost() + method.cost()
+  }
 }
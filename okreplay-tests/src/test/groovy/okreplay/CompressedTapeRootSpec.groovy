@@ -0,0 +1,130 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+import static okreplay.Fixtures.request
+import static okreplay.Fixtures.response
+import static okreplay.TapeMode.READ_WRITE
+
+@Unroll
+class CompressedTapeRootSpec extends Specification {
+  File root = Files.createTempDir()
+
+  void cleanup() {
+    root.deleteDir()
+  }
+
+  void "tapes are written to and read from #extension files"() {
+    given:
+    def tapeRoot = dictionary != null
+        ? new CompressedTapeRoot(new DefaultTapeRoot(root), dictionary)
+        : new CompressedTapeRoot(new DefaultTapeRoot(root))
+    def loader = new YamlTapeLoader(tapeRoot)
+    def tape = loader.loadTape("compressed tape spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+
+    when:
+    loader.writeTape(tape)
+
+    then:
+    root.list() as List == ["compressed_tape_spec.yaml$extension" as String]
+    tapeRoot.tapeExists("compressed_tape_spec.yaml")
+
+    when:
+    tape = loader.loadTape("compressed tape spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+    def loaded = loader.loadTape("compressed tape spec")
+
+    then:
+    loaded.size() == 2
+    loaded.seekAndPlay(request("http://freeside.co/2")).bodyAsText() == "2"
+
+    where:
+    extension  | dictionary
+    ".gz"      | null
+    ".deflate" | "okreplay".bytes
+  }
+
+  void "gzipped tapes can be read with standard tools"() {
+    given:
+    def tapeRoot = new CompressedTapeRoot(new DefaultTapeRoot(root))
+    def writer = tapeRoot.writerFor("tape.yaml")
+    writer.write("!tape\nname: tape\n")
+    writer.close()
+
+    expect:
+    new GZIPInputStream(new File(root, "tape.yaml.gz").newInputStream()).text ==
+        "!tape\nname: tape\n"
+  }
+
+  void "uncompressed tapes are still read and compressed once they are written"() {
+    given:
+    new File(root, "plain_tape.yaml").text = """\
+!tape
+name: plain tape
+interactions:
+- recorded: 2011-08-23T22:41:40.000Z
+  request:
+    method: GET
+    uri: http://freeside.co/1
+  response:
+    status: 200
+    headers: {Content-Type: text/plain}
+    body: '1'
+"""
+    def loader = new YamlTapeLoader(new CompressedTapeRoot(new DefaultTapeRoot(root)))
+
+    when:
+    def tape = loader.loadTape("plain tape")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/2"), response("2"))
+    loader.writeTape(tape)
+    def loaded = loader.loadTape("plain tape")
+
+    then:
+    root.list() as List == ["plain_tape.yaml.gz"]
+    loaded.size() == 2
+    loaded.seekAndPlay(request("http://freeside.co/1")).bodyAsText() == "1"
+  }
+
+  void "gzipped tapes are replaced once they are written with a dictionary"() {
+    given:
+    def gzipped = new CompressedTapeRoot(new DefaultTapeRoot(root))
+    def writer = gzipped.writerFor("tape.yaml")
+    writer.write("!tape\nname: tape\n")
+    writer.close()
+    def tapeRoot = new CompressedTapeRoot(new DefaultTapeRoot(root), "okreplay".bytes)
+
+    when:
+    def appending = tapeRoot.appendingStreamFor("tape.yaml")
+    appending.write("interactions: []\n".bytes)
+    appending.close()
+
+    then:
+    root.list() as List == ["tape.yaml.deflate"]
+    tapeRoot.readerFor("tape.yaml").text == "!tape\nname: tape\ninteractions: []\n"
+  }
+
+  void "a truncated deflate tape is not read as a complete one"() {
+    given:
+    def tapeRoot = new CompressedTapeRoot(new DefaultTapeRoot(root), "okreplay".bytes)
+    def writer = tapeRoot.writerFor("tape.yaml")
+    writer.write("!tape\nname: tape\n" * 100)
+    writer.close()
+    def file = new File(root, "tape.yaml.deflate")
+    file.bytes = file.bytes[0..<(file.bytes.length - 4)] as byte[]
+
+    when:
+    tapeRoot.inputStreamFor("tape.yaml").bytes
+
+    then:
+    thrown EOFException
+  }
+}
@@ -0,0 +1,43 @@
+package okreplay
+
+import okhttp3.OkHttpClient
+import spock.lang.Specification
+
+import static okreplay.Fixtures.response
+import static okreplay.Headers.X_OKREPLAY
+import static okreplay.TapeMode.READ_ONLY
+
+class CustomTapeSpec extends Specification {
+  def interceptor = new OkReplayInterceptor()
+  def configuration = new OkReplayConfig.Builder()
+      .interceptor(interceptor)
+      .build()
+  def client = new OkHttpClient.Builder()
+      .addInterceptor(interceptor)
+      .build()
+  def proxy = new ProxyServer(configuration, interceptor)
+
+  void "tapes implemented elsewhere are played back with seek and play"() {
+    given:
+    def tape = Stub(Tape) {
+      getName() >> "custom tape"
+      getMode() >> READ_ONLY
+      isReadable() >> true
+      seek(_) >> true
+      play(_) >> response("O HAI!")
+    }
+    proxy.start(tape)
+
+    when:
+    def response = client.newCall(new okhttp3.Request.Builder()
+        .url("http://freeside.co/")
+        .build()).execute()
+
+    then:
+    response.header(X_OKREPLAY) == "PLAY"
+    response.body().string() == "O HAI!"
+
+    cleanup:
+    proxy.stop()
+  }
+}
@@ -0,0 +1,89 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class EventListenerSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  def events = []
+  def listener = new OkReplayEventListener() {
+    @Override void tapeLoaded(Tape tape, String fileName, long tookNanos) {
+      events << "loaded $fileName"
+    }
+
+    @Override void requestMatched(Tape tape, Request request, long tookNanos) {
+      events << "matched ${request.url().encodedPath()}"
+    }
+
+    @Override void requestMissed(Tape tape, Request request, long tookNanos) {
+      events << "missed ${request.url().encodedPath()}"
+    }
+
+    @Override void interactionRecorded(Tape tape, Request request, long tookNanos) {
+      events << "recorded ${request.url().encodedPath()}"
+    }
+
+    @Override void tapeWritten(Tape tape, String fileName, long tookNanos) {
+      events << "written $fileName"
+    }
+  }
+
+  void setupSpec() {
+    endpoint.start()
+  }
+
+  void "listeners receive the events of a recorder"() {
+    given:
+    def configuration = new OkReplayConfig.Builder()
+        .tapeRoot(tapeRoot)
+        .defaultMode(READ_WRITE)
+        .interceptor(new OkReplayInterceptor())
+        .addEventListener(listener)
+        .build()
+    def client = new OkHttpClient.Builder()
+        .addInterceptor(configuration.interceptor())
+        .build()
+    def recorder = new Recorder(configuration)
+    endpoint.enqueue(new MockResponse().setBody("OK"))
+
+    when:
+    recorder.start("event listener spec")
+    2.times {
+      client.newCall(new okhttp3.Request.Builder().url(endpoint.url("/a")).build()).execute()
+          .close()
+    }
+    recorder.stop()
+
+    then:
+    events == [
+        "loaded event_listener_spec.yaml",
+        "missed /a",
+        "recorded /a",
+        "matched /a",
+        "written event_listener_spec.yaml"
+    ]
+  }
+
+  void "the default logging can be replaced"() {
+    given:
+    def configuration = new OkReplayConfig.Builder()
+        .eventListeners([listener])
+        .build()
+
+    expect:
+    configuration.eventListener.is(listener)
+    new OkReplayConfig.Builder().eventListeners([]).build().eventListener.is(
+        OkReplayEventListener.NONE)
+    new OkReplayConfig.Builder().build().eventListener instanceof LoggingEventListener
+  }
+}
@@ -0,0 +1,18 @@
+package okreplay
+
+import okhttp3.MediaType
+import okhttp3.ResponseBody
+
+/** Builds the requests and responses that specs record on tapes. */
+class Fixtures {
+  static RecordedRequest request(String url) {
+    new RecordedRequest.Builder().url(url).build()
+  }
+
+  static RecordedResponse response(String body) {
+    new RecordedResponse.Builder()
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("text/plain"), body))
+        .build()
+  }
+}
@@ -0,0 +1,79 @@
+package okreplay
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class HostMatcherSpec extends Specification {
+  def matcher = new HostMatcher(["api.example.com", "*.example.org", "10.0.0.0/8", "fd00::/8",
+      "192.168.1.128/25", "LOCALHOST"])
+
+  void "#host is #description"() {
+    expect:
+    matcher.matches(host) == matches
+
+    where:
+    host              | matches
+    "api.example.com" | true
+    "example.com"     | false
+    "a.example.org"   | true
+    "x.y.example.org" | true
+    "example.org"     | false
+    "notexample.org"  | false
+    "10.1.2.3"        | true
+    "11.0.0.1"        | false
+    "fd12::1"         | true
+    "fe80::1"         | false
+    "192.168.1.200"   | true
+    "192.168.1.100"   | false
+    "localhost"       | true
+
+    description = matches ? "ignored" : "not ignored"
+  }
+
+  void "invalid address ranges are rejected"() {
+    when:
+    new HostMatcher([range])
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    range << ["10.0.0.0/33", "10.0.0.0/x", "example.com/8"]
+  }
+
+  void "#host is not an address in any range"() {
+    given:
+    def anyAddress = new HostMatcher(["0.0.0.0/0", "::/0"])
+
+    expect:
+    !anyAddress.matches(host)
+
+    where:
+    host << ["999.1.1.1", "1.2.3", "1.2.3.4.5", "1..2.3", "g::1", "1::2::3", "12345::1",
+        "fe80::1%eth0", "example.com"]
+  }
+
+  void "#host is an address"() {
+    expect:
+    HostMatcher.parseAddress(host) == address as byte[]
+
+    where:
+    host              | address
+    "255.0.10.1"      | [255, 0, 10, 1]
+    "::1"             | [0] * 15 + [1]
+    "[fd12::ab]"      | [0xfd, 0x12] + [0] * 13 + [0xab]
+    "::ffff:10.0.0.1" | [0] * 10 + [0xff, 0xff, 10, 0, 0, 1]
+  }
+
+  void "ignored hosts are compiled when the configuration is built"() {
+    when:
+    new OkReplayConfig.Builder()
+        .ignoreHosts(["10.0.0.0/33"])
+        .interceptor(new OkReplayInterceptor())
+        .build()
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+}
@@ -54,6 +54,7 @@ class IgnoreHostsSpec extends Specification {
     "localhost"              | "http://localhost:${endpoint.url("/").port()}"
     "127.0.0.1"              | "http://127.0.0.1:${endpoint.url("/").port()}"
     endpoint.url("/").host() | "http://localhost:${endpoint.url("/").port()}"
+    "127.0.0.0/8"            | "http://127.0.0.1:${endpoint.url("/").port()}"
   }
 
   void "does not proxy a request to #requestURI when ignoreLocalhost is true"() {
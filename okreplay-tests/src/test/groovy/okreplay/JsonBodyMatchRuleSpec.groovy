@@ -0,0 +1,69 @@
+package okreplay
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class JsonBodyMatchRuleSpec extends Specification {
+  def rule = JsonBodyMatchRule.ignoring("meta.timestamp", "items.*.nonce")
+
+  void "#body1 and #body2 match: #shouldMatch"() {
+    given:
+    def request1 = request(body1)
+    def request2 = request(body2)
+
+    expect:
+    rule.isMatch(request1, request2) == shouldMatch
+    (rule.key(request1) == rule.key(request2)) == shouldMatch
+
+    where:
+    body1                                   | body2                                          | shouldMatch
+    '{"a":1,"b":[true,null]}'               | ' { "b" : [ true, null ], "a" : 1.0 } '        | true
+    '{"a":1}'                               | '{"a":2}'                                      | false
+    '{"a":[1,2]}'                           | '{"a":[2,1]}'                                  | false
+    '{"a":"x","meta":{"timestamp":1}}'      | '{"meta":{"timestamp":2},"a":"x"}'             | true
+    '{"meta":{"timestamp":1,"id":1}}'       | '{"meta":{"timestamp":1,"id":2}}'              | false
+    '{"items":[{"nonce":"a","v":1}]}'       | '{"items":[{"v":1,"nonce":"b"}]}'              | true
+    'not json'                              | 'not json'                                     | true
+    'not json'                              | 'not  json'                                    | false
+    '{"a":1}'                               | '{"a":01}'                                     | false
+    '{"a":1}'                               | '{"a":1.}'                                     | false
+    '{"a":1}'                               | '{"a":+1}'                                     | false
+    '{"a":1e-2147483648}'                   | '{"a":1e-2147483648}'                          | true
+    '{"a":1e-2147483648}'                   | '{ "a":1e-2147483648}'                         | false
+  }
+
+  void "bodies nested deeper than the limit are compared as they are"() {
+    given:
+    def depth = CanonicalJson.MAX_DEPTH + 1
+    def nested = "[" * depth + "]" * depth
+    def deep = "[" * 100000 + "]" * 100000
+
+    expect:
+    rule.isMatch(request(nested), request(nested))
+    !rule.isMatch(request(nested), request(" " + nested))
+    rule.isMatch(request(deep), request(deep))
+    def deepest = "[" * CanonicalJson.MAX_DEPTH + "]" * CanonicalJson.MAX_DEPTH
+    CanonicalJson.canonicalize(deepest, []) == deepest
+  }
+
+  void "requests without a body match each other"() {
+    expect:
+    rule.isMatch(new RecordedRequest("GET", "http://freeside.co/"),
+        new RecordedRequest("GET", "http://freeside.co/"))
+    !rule.isMatch(new RecordedRequest("GET", "http://freeside.co/"), request("{}"))
+  }
+
+  void "a request is only canonicalized once for a rule"() {
+    given:
+    def request = request('{"a":1}')
+
+    expect:
+    rule.key(request).is(JsonBodyMatchRule.ignoring("meta.timestamp", "items.*.nonce").key(request))
+  }
+
+  private static Request request(String body) {
+    new RecordedRequest("POST", "http://freeside.co/", ["Content-Type": "application/json"],
+        body.getBytes("UTF-8"))
+  }
+}
@@ -0,0 +1,95 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static okreplay.Fixtures.response
+import static okreplay.MatchRules.*
+import static okreplay.TapeMode.READ_WRITE
+
+@Unroll
+class KeyedMatchRuleSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared def loader = new YamlTapeLoader(tapeRoot)
+  @Shared def sameUrlRule = new MatchRule() {
+    @Override boolean isMatch(Request a, Request b) {
+      a.url() == b.url()
+    }
+  }
+
+  void "#rule produces equal keys for #url1 and #url2"() {
+    given:
+    def request1 = new RecordedRequest.Builder().url(url1).build()
+    def request2 = new RecordedRequest.Builder().url(url2).build()
+
+    expect:
+    rule.isMatch(request1, request2)
+    rule.key(request1) == rule.key(request2)
+
+    where:
+    rule        | url1                                 | url2
+    method      | "http://freeside.co/betamax"         | "http://freeside.co/"
+    uri         | "http://freeside.co/betamax"         | "http://freeside.co/betamax"
+    host        | "http://freeside.co/betamax"         | "http://freeside.co/"
+    path        | "http://freeside.co/betamax"         | "http://example.com/betamax"
+    port        | "http://freeside.co:5000/betamax"    | "http://example.com:5000/"
+    queryParams | "http://freeside.co/betamax?q=1&p=2" | "http://freeside.co/betamax?p=2&q=1"
+  }
+
+  void "composed rule ignores rules that cannot produce a key"() {
+    given:
+    def custom = new MatchRule() {
+      @Override boolean isMatch(Request a, Request b) {
+        true
+      }
+    }
+    def request = new RecordedRequest.Builder().url("http://freeside.co/betamax").build()
+
+    expect:
+    ComposedMatchRule.of(method, uri, custom).key(request) ==
+        ComposedMatchRule.of(method, uri).key(request)
+    ComposedMatchRule.of(custom).key(request) == null
+  }
+
+  void "tape finds the first matching interaction using #rule"() {
+    given:
+    def tape = loader.loadTape("keyed match rule spec")
+    tape.mode = READ_WRITE
+    tape.matchRule = rule
+
+    and:
+    (0..<10).each { i ->
+      tape.record(new RecordedRequest.Builder().url("http://freeside.co/$i").build(),
+          response("$i"))
+    }
+
+    expect:
+    tape.play(new RecordedRequest.Builder().url("http://freeside.co/7").build())
+        .bodyAsText() == expected
+    !tape.seek(new RecordedRequest.Builder().url("http://example.com/7").build())
+
+    where:
+    rule                               | expected
+    ComposedMatchRule.of(method, uri)  | "7"
+    ComposedMatchRule.of(method, host) | "0"
+    sameUrlRule                        | "7"
+  }
+
+  void "overwriting an interaction keeps the index up to date"() {
+    given:
+    def tape = loader.loadTape("keyed match rule overwrite spec")
+    tape.mode = READ_WRITE
+    def request = new RecordedRequest.Builder().url("http://freeside.co/betamax").build()
+
+    when:
+    tape.record(request, response("first"))
+    tape.record(request, response("second"))
+
+    then:
+    tape.size() == 1
+    tape.play(request).bodyAsText() == "second"
+  }
+}
@@ -0,0 +1,117 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import static okreplay.Headers.X_OKREPLAY
+import static okreplay.TapeMode.READ_ONLY
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class LazyTapeLoadingSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  def loaded = []
+  def configuration = new OkReplayConfig.Builder()
+      .tapeRoot(tapeRoot)
+      .defaultMode(READ_WRITE)
+      .lazyTapeLoading(true)
+      .interceptor(new OkReplayInterceptor())
+      .addEventListener(new OkReplayEventListener() {
+        @Override void tapeLoaded(Tape tape, String fileName, long tookNanos) {
+          loaded << fileName
+        }
+      })
+      .build()
+  def client = new OkHttpClient.Builder()
+      .addInterceptor(configuration.interceptor())
+      .build()
+  def recorder = new Recorder(configuration)
+
+  void setupSpec() {
+    endpoint.start()
+  }
+
+  void "a tape is not read if no requests are made"() {
+    given:
+    def tapeFile = new File(tapeRoot, "unread_tape.yaml")
+    tapeFile.text = "not a tape"
+
+    when:
+    recorder.start("unread tape", READ_ONLY, MatchRules.method)
+
+    then:
+    recorder.tape.name == "unread tape"
+    recorder.tape.mode == READ_ONLY
+    recorder.tape.matchRule == MatchRules.method
+    loaded.empty
+
+    when:
+    recorder.stop()
+
+    then:
+    loaded.empty
+    tapeFile.text == "not a tape"
+  }
+
+  void "a tape is loaded when the first request is made"() {
+    given:
+    recorder.start("lazy tape")
+    endpoint.enqueue(new MockResponse().setBody("OK"))
+
+    when:
+    def recorded = client.newCall(request("/")).execute()
+    def played = client.newCall(request("/")).execute()
+
+    then:
+    loaded == ["lazy_tape.yaml"]
+    recorded.header(X_OKREPLAY) == "REC"
+    played.header(X_OKREPLAY) == "PLAY"
+    played.body().string() == "OK"
+
+    when:
+    recorder.stop()
+
+    then:
+    new File(tapeRoot, "lazy_tape.yaml").text.contains("body: OK")
+  }
+
+  void "a lazily loaded tape is only writable if the loaded tape is"() {
+    given:
+    def mappedConfiguration = new OkReplayConfig.Builder()
+        .tapeRoot(tapeRoot)
+        .defaultMode(READ_WRITE)
+        .tapeFormat(TapeFormat.BINARY_MAPPED)
+        .lazyTapeLoading(true)
+        .interceptor(new OkReplayInterceptor())
+        .build()
+    def mappedClient = new OkHttpClient.Builder()
+        .addInterceptor(mappedConfiguration.interceptor())
+        .build()
+    def mappedRecorder = new Recorder(mappedConfiguration)
+    mappedRecorder.start("lazy mapped tape")
+
+    expect:
+    mappedRecorder.tape.mode == READ_WRITE
+    !mappedRecorder.tape.writable
+
+    when:
+    mappedClient.newCall(request("/")).execute()
+
+    then:
+    thrown NonWritableTapeException
+
+    cleanup:
+    mappedRecorder.stop()
+  }
+
+  private okhttp3.Request request(String path) {
+    new okhttp3.Request.Builder().url(endpoint.url(path)).build()
+  }
+}
@@ -0,0 +1,118 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.MediaType
+import okhttp3.ResponseBody
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+
+import static okreplay.Fixtures.request
+import static okreplay.TapeMode.READ_ONLY
+import static okreplay.TapeMode.READ_WRITE
+
+class MappedTapeLoaderSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") File tapeRoot = Files.createTempDir()
+  @Shared def image = (0..<20000).collect { (byte) it } as byte[]
+
+  void setupSpec() {
+    def binaryLoader = new BinaryTapeLoader(new DefaultTapeRoot(tapeRoot))
+    def tape = binaryLoader.loadTape("mapped tape")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/text"), new RecordedResponse.Builder()
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("text/plain;charset=UTF-8"), "O HAI! ✓"))
+        .build())
+    tape.record(request("http://freeside.co/latin"), new RecordedResponse.Builder()
+        .code(200)
+        .body(ResponseBody.create(MediaType.parse("text/plain;charset=ISO-8859-1"), "café"))
+        .build())
+    tape.record(request("http://freeside.co/image.png"), new RecordedResponse.Builder()
+        .code(201)
+        .body(ResponseBody.create(MediaType.parse("image/png"), image))
+        .build())
+    binaryLoader.writeTape(tape)
+  }
+
+  def loader = new MappedTapeLoader(new DefaultTapeRoot(tapeRoot))
+
+  void "a mapped tape plays back recorded responses"() {
+    given:
+    def tape = loader.loadTape("mapped tape")
+    tape.mode = READ_ONLY
+
+    expect:
+    tape.name == "mapped tape"
+    tape.size() == 3
+    tape.seekAndPlay(request("http://freeside.co/text")).bodyAsText() == "O HAI! ✓"
+    tape.seekAndPlay(request("http://freeside.co/latin")).bodyAsText() == "café"
+    with(tape.seekAndPlay(request("http://freeside.co/image.png"))) {
+      code() == 201
+      body() == image
+    }
+    tape.seekAndPlay(request("http://freeside.co/missing")) == null
+  }
+
+  void "only the interactions that are played are decoded"() {
+    given:
+    def tape = loader.loadTape("mapped tape")
+    tape.mode = READ_ONLY
+
+    when:
+    def response = tape.seekAndPlay(request("http://freeside.co/latin"))
+
+    then:
+    response.bodyAsText() == "café"
+    !tape.seek(request("http://freeside.co/missing"))
+    tape.decodedCount() == 1
+  }
+
+  void "the requests of a mapped tape are decoded once for matching"() {
+    given:
+    def tape = loader.loadTape("mapped tape")
+    MappedInteractions interactions = tape.@interactions
+
+    when:
+    def first = interactions.request(1)
+
+    then:
+    interactions.request(1).is(first)
+    first.url().toString() == "http://freeside.co/latin"
+    tape.decodedCount() == 0
+  }
+
+  void "mapped response bodies are streamed"() {
+    given:
+    def tape = loader.loadTape("mapped tape")
+    def okhttpRequest = new okhttp3.Request.Builder().url("http://freeside.co/image.png").build()
+
+    when:
+    def response = OkHttpResponseAdapter.adapt(okhttpRequest,
+        tape.seekAndPlay(OkHttpRequestAdapter.adapt(okhttpRequest)))
+
+    then:
+    response.body().contentLength() == image.length
+    response.body().bytes() == image
+  }
+
+  void "mapped tapes are read-only"() {
+    given:
+    def tape = loader.loadTape("mapped tape")
+    tape.mode = READ_WRITE
+
+    when:
+    tape.record(request("http://freeside.co/text"), new RecordedResponse.Builder()
+        .code(200)
+        .build())
+
+    then:
+    !tape.writable
+    !tape.dirty
+    thrown UnsupportedOperationException
+  }
+
+  void "a missing tape is mapped as an empty tape"() {
+    expect:
+    loader.loadTape("no such tape").size() == 0
+  }
+}
@@ -5,6 +5,7 @@ import okhttp3.RequestBody
 import okreplay.RecordedRequest
 import spock.lang.Issue
 import spock.lang.Specification
+import spock.lang.Unroll
 
 import static com.google.common.net.HttpHeaders.AUTHORIZATION
 import static com.google.common.net.HttpHeaders.CACHE_CONTROL
@@ -159,6 +160,30 @@ class MatchRuleSpec extends Specification {
     !rule.isMatch(request, request3)
   }
 
+  @Unroll
+  void 'can match post body by #rule'() {
+    given:
+    def mediaType = MediaType.parse("text/plain")
+    def built = new RecordedRequest.Builder()
+        .method('POST', RequestBody.create(mediaType, 'q=1'))
+        .url('http://freeside.co/betamax')
+        .build()
+    def fromBytes = new RecordedRequest('POST', 'http://freeside.co/betamax', [:], 'q=1'.bytes)
+    def sameLength = new RecordedRequest('POST', 'http://freeside.co/betamax', [:], 'q=2'.bytes)
+    def noBody = new RecordedRequest('GET', 'http://freeside.co/betamax')
+
+    expect:
+    rule.isMatch(built, fromBytes)
+    rule.key(built) == rule.key(fromBytes)
+    rule.key(built).is(rule.key(built))
+    !rule.isMatch(built, sameLength)
+    !rule.isMatch(built, noBody)
+    rule.isMatch(noBody, new RecordedRequest('GET', 'http://freeside.co/'))
+
+    where:
+    rule << [body, bodyDigest]
+  }
+
   void 'can match query parameters in different orders'() {
     given:
     def request1 = new RecordedRequest.Builder()
@@ -186,4 +211,37 @@ class MatchRuleSpec extends Specification {
     rule.isMatch(request3, request4)
     !rule.isMatch(request, request3)
   }
+
+  void 'can match port and query'() {
+    given:
+    def request = new RecordedRequest.Builder()
+        .url('http://freeside.co/betamax?q=1')
+        .build()
+    def explicitPort = new RecordedRequest.Builder()
+        .url('http://freeside.co:8080/betamax?q=1')
+        .build()
+    def noQuery = new RecordedRequest.Builder()
+        .url('http://freeside.co/betamax')
+        .build()
+
+    expect:
+    port.isMatch(request, noQuery)
+    !port.isMatch(request, explicitPort)
+    query.isMatch(request, explicitPort)
+    !query.isMatch(request, noQuery)
+    !query.isMatch(noQuery, request)
+    query.isMatch(noQuery, noQuery)
+  }
+
+  void 'recorded requests are only parsed once'() {
+    given:
+    def request = new RecordedRequest.Builder()
+        .url('http://freeside.co/betamax?q=1&p=2')
+        .build()
+
+    expect:
+    request.view().is(request.view())
+    request.view().queryParameters() == ['p=2', 'q=1'] as String[]
+    request.view().queryParameters().is(request.view().queryParameters())
+  }
 }
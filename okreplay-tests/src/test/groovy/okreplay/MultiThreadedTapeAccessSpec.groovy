@@ -27,6 +27,7 @@ import spock.lang.Specification
 import java.util.concurrent.CountDownLatch
 
 import static java.util.concurrent.TimeUnit.SECONDS
+import static okreplay.Fixtures.response
 import static okreplay.TapeMode.*
 
 @Issue("https://github.com/robfletcher/betamax/issues/57")
@@ -123,4 +124,49 @@ class MultiThreadedTapeAccessSpec extends Specification {
     where:
     threads = 10
   }
+
+  void "recordings made while other threads replay are published to them"() {
+    given: "a response already on tape"
+    tape.matchRule = ComposedMatchRule.of(MatchRules.method, MatchRules.uri)
+    def existing = new RecordedRequest.Builder().url("http://example.com/existing").build()
+    tape.record(existing, response("existing"))
+
+    when: "threads replay it while more responses are recorded"
+    def finished = new CountDownLatch(threads)
+    def failures = [].asSynchronized()
+    threads.times {
+      Thread.start {
+        try {
+          100.times {
+            if (tape.seekAndPlay(existing).bodyAsText() != "existing") {
+              failures << "wrong response"
+            }
+          }
+        } catch (Throwable e) {
+          failures << e
+        } finally {
+          finished.countDown()
+        }
+      }
+    }
+    (0..<recordings).each { i ->
+      tape.record(new RecordedRequest.Builder().url("http://example.com/$i").build(),
+          response(i.toString()))
+    }
+
+    then: "all threads complete without failures"
+    finished.await(5, SECONDS)
+    failures.empty
+
+    and: "every recording can be replayed"
+    tape.size() == recordings + 1
+    (0..<recordings).every { i ->
+      tape.seekAndPlay(new RecordedRequest.Builder().url("http://example.com/$i").build())
+          .bodyAsText() == i.toString()
+    }
+
+    where:
+    threads = 8
+    recordings = 50
+  }
 }
@@ -0,0 +1,86 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class OkReplayMetricsSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  def metrics = new OkReplayMetrics()
+  def configuration = new OkReplayConfig.Builder()
+      .tapeRoot(tapeRoot)
+      .defaultMode(READ_WRITE)
+      .interceptor(new OkReplayInterceptor())
+      .metrics(metrics)
+      .build()
+  def client = new OkHttpClient.Builder()
+      .addInterceptor(configuration.interceptor())
+      .build()
+  def recorder = new Recorder(configuration)
+
+  void setupSpec() {
+    endpoint.start()
+  }
+
+  void "requests are counted per tape"() {
+    given:
+    endpoint.enqueue(new MockResponse().setBody("OK"))
+
+    when:
+    recorder.start("metrics spec")
+    3.times {
+      client.newCall(new okhttp3.Request.Builder().url(endpoint.url("/")).build()).execute()
+          .close()
+    }
+    def interceptorMetrics = configuration.interceptor().metrics()
+    recorder.stop()
+    def snapshot = recorder.metrics.snapshot("metrics spec")
+
+    then:
+    interceptorMetrics.is(metrics)
+    metrics.snapshot().keySet() == ["metrics spec"] as Set
+
+    and:
+    snapshot.played() == 2
+    snapshot.missed() == 1
+    snapshot.recorded() == 1
+    snapshot.interactions() == 1
+
+    and:
+    snapshot.load().count() == 1
+    snapshot.match().count() == 3
+    snapshot.record().count() == 1
+    snapshot.write().count() == 1
+  }
+
+  void "metrics are not collected unless enabled"() {
+    expect:
+    new OkReplayConfig.Builder().build().metrics == null
+  }
+
+  void "histogram percentiles are accurate within their buckets"() {
+    given:
+    def histogram = new LatencyHistogram()
+    (1..1000).each { histogram.record(it * 1000L) }
+
+    when:
+    def snapshot = histogram.snapshot()
+
+    then:
+    snapshot.count() == 1000
+    snapshot.meanNanos() == 500500
+    Math.abs(snapshot.percentileNanos(50) - 500000) <= 500000 * 0.125
+    Math.abs(snapshot.percentileNanos(99) - 990000) <= 990000 * 0.125
+    snapshot.percentileNanos(100) == 1000000
+    snapshot.maxNanos() == 1000000
+  }
+}
@@ -0,0 +1,90 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static okreplay.Fixtures.request
+import static okreplay.Fixtures.response
+import static okreplay.MatchRules.method
+import static okreplay.MatchRules.uri
+import static okreplay.TapeMode.READ_WRITE
+
+@Unroll
+class PathTemplateMatchRuleSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared def loader = new YamlTapeLoader(tapeRoot)
+  @Shared def rule = PathTemplateMatchRule.of("/users/{id}", "/users/me",
+      "/users/{id}/orders/{order:[0-9]+}", "/files/*.json", "/static/**")
+
+  void "#path matches template #template"() {
+    expect:
+    rule.templateOf(path) == template
+
+    where:
+    path                 | template
+    "/users/1"           | "/users/{id}"
+    "/users/me"          | "/users/me"
+    "/users/1/orders/42" | "/users/{id}/orders/{order:[0-9]+}"
+    "/users/1/orders/x"  | null
+    "/users/1/orders"    | null
+    "/files/a.json"      | "/files/*.json"
+    "/files/a.xml"       | null
+    "/static"            | "/static/**"
+    "/static/css/a.css"  | "/static/**"
+  }
+
+  void "#url1 and #url2 match: #shouldMatch"() {
+    given:
+    def request1 = new RecordedRequest.Builder().url(url1).build()
+    def request2 = new RecordedRequest.Builder().url(url2).build()
+
+    expect:
+    rule.isMatch(request1, request2) == shouldMatch
+    (rule.key(request1) == rule.key(request2)) == shouldMatch
+
+    where:
+    url1                            | url2                               | shouldMatch
+    "http://freeside.co/users/1"    | "http://freeside.co/users/2?q=1"   | true
+    "http://freeside.co/users/1"    | "http://example.com/users/1"       | false
+    "http://freeside.co/users/1"    | "http://freeside.co/users/me"      | false
+    "http://freeside.co/other/1"    | "http://freeside.co/other/1"       | true
+    "http://freeside.co/other/1"    | "http://freeside.co/other/2"       | false
+  }
+
+  void "templates must end with **"() {
+    when:
+    PathTemplateMatchRule.of("/static/**/a.css")
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  void "tape only compares requests with recordings of the same template"() {
+    given:
+    def tape = loader.loadTape("path template spec")
+    tape.mode = READ_WRITE
+    tape.matchRule = ComposedMatchRule.of(method, uri)
+    (0..<1000).each { i ->
+      tape.record(request("http://freeside.co/items/$i"), response("item $i"))
+    }
+    tape.record(request("http://freeside.co/users/1"), response("user"))
+
+    when:
+    def evaluated = 0
+    def counting = new MatchRule() {
+      @Override boolean isMatch(Request a, Request b) {
+        evaluated++
+        true
+      }
+    }
+    tape.matchRule = ComposedMatchRule.of(method, rule, counting)
+
+    then:
+    tape.play(request("http://freeside.co/users/42")).bodyAsText() == "user"
+    evaluated == 1
+    !tape.seek(request("http://freeside.co/users/1/orders"))
+  }
+}
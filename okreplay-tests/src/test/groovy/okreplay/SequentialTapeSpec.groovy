@@ -124,4 +124,30 @@ class SequentialTapeSpec extends Specification {
         .url("http://freeside.co/thing/1")
         .build()
   }
+
+  void "seek and play does not advance the tape when the next request does not match"() {
+    given: "a tape in read-sequential mode"
+    def tape = tapeLoader.loadTape("rest conversation tape")
+    tape.mode = READ_SEQUENTIAL
+
+    when: "a request is made out of the expected sequence"
+    def response = tape.seekAndPlay(postRequest)
+
+    then: "no response is returned"
+    response == null
+
+    and: "the expected request still plays back"
+    tape.seekAndPlay(getRequest).code() == HTTP_NOT_FOUND
+
+    where:
+    url = "http://freeside.co/thing/1"
+    getRequest = new RecordedRequest.Builder()
+        .url(url)
+        .build()
+    postRequest = new RecordedRequest.Builder()
+        .method("POST", RequestBody.create(MediaType.parse(JSON_UTF_8.toString()),
+        '{"name":"foo"}'))
+        .url(url)
+        .build()
+  }
 }
@@ -0,0 +1,100 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS
+import static okreplay.Headers.X_OKREPLAY
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class StreamRecordingSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  @Shared def body = "0123456789abcdef" * 1024
+  def configuration = new OkReplayConfig.Builder()
+      .tapeRoot(tapeRoot)
+      .defaultMode(READ_WRITE)
+      .streamRecording(true)
+      .interceptor(new OkReplayInterceptor())
+      .build()
+  def client = new OkHttpClient.Builder()
+      .addInterceptor(configuration.interceptor())
+      .build()
+  @AutoCleanup("stop") def recorder = new Recorder(configuration)
+
+  void setupSpec() {
+    endpoint.start()
+  }
+
+  void "the body is passed on before it has been downloaded and recorded once it is read"() {
+    given:
+    recorder.start("stream recording spec")
+    endpoint.enqueue(new MockResponse()
+        .setBody(new Buffer().writeUtf8(body))
+        .throttleBody(4096, 50, MILLISECONDS))
+
+    when:
+    def response = client.newCall(request("/")).execute()
+    def source = response.body().source()
+    def start = source.readUtf8(16)
+
+    then:
+    start == "0123456789abcdef"
+    recorder.tape.size() == 0
+
+    when:
+    def rest = source.readUtf8()
+    response.close()
+
+    then:
+    start + rest == body
+    recorder.tape.size() == 1
+    recorder.tape.seekAndPlay(OkHttpRequestAdapter.adapt(request("/"))).bodyAsText() == body
+  }
+
+  void "the whole body is recorded if it is closed early"() {
+    given:
+    recorder.start("stream recording spec")
+    endpoint.enqueue(new MockResponse().setBody(body))
+
+    when:
+    def response = client.newCall(request("/early")).execute()
+    response.body().source().readUtf8(16)
+    response.close()
+
+    and:
+    def played = client.newCall(request("/early")).execute()
+
+    then:
+    played.header(X_OKREPLAY) == "PLAY"
+    played.body().string() == body
+  }
+
+  void "a body of unknown length closed early is not read to the end or recorded"() {
+    given:
+    recorder.start("stream recording spec")
+    endpoint.enqueue(new MockResponse()
+        .setChunkedBody(body, 1024)
+        .throttleBody(1024, 1000, MILLISECONDS))
+
+    when:
+    def response = client.newCall(request("/unknown")).execute()
+    response.body().source().readUtf8(16)
+    response.close()
+
+    then:
+    recorder.tape.size() == 0
+  }
+
+  private okhttp3.Request request(String path) {
+    new okhttp3.Request.Builder().url(endpoint.url(path)).build()
+  }
+}
@@ -0,0 +1,104 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.MediaType
+import okhttp3.ResponseBody
+import spock.lang.Specification
+
+import static okreplay.TapeMode.READ_WRITE
+
+class TapeCacheSpec extends Specification {
+  File tapeRoot = Files.createTempDir()
+  File file = new File(tapeRoot, "cached_tape.yaml")
+  def loader = new YamlTapeLoader(new DefaultTapeRoot(tapeRoot), -1, new TapeCache(1024 * 1024))
+
+  void setup() {
+    file.text = """\
+!tape
+name: cached tape
+interactions:
+- recorded: 2011-08-23T22:41:40.000Z
+  request:
+    method: GET
+    uri: http://freeside.co/1
+  response:
+    status: 200
+    headers: {Content-Type: text/plain}
+    body: '1'
+"""
+  }
+
+  void cleanup() {
+    tapeRoot.deleteDir()
+  }
+
+  void "a tape that was loaded before shares its interactions"() {
+    when:
+    def first = loader.loadTape("cached tape")
+    def second = loader.loadTape("cached tape")
+
+    then:
+    second.name == "cached tape"
+    second.size() == 1
+    second.interactions[0].is(first.interactions[0])
+    !second.dirty
+  }
+
+  void "recording to a tape does not change the cached interactions"() {
+    given:
+    def first = loader.loadTape("cached tape")
+    first.mode = READ_WRITE
+
+    when:
+    first.record(new RecordedRequest.Builder().url("http://freeside.co/2").build(),
+        new RecordedResponse.Builder()
+            .code(200)
+            .body(ResponseBody.create(MediaType.parse("text/plain"), "2"))
+            .build())
+
+    then:
+    first.size() == 2
+    loader.loadTape("cached tape").size() == 1
+  }
+
+  void "a tape is read again when its file changes"() {
+    given:
+    def first = loader.loadTape("cached tape")
+
+    when:
+    file.text = file.text.replace("body: '1'", "body: '11'")
+
+    then:
+    !loader.loadTape("cached tape").interactions[0].is(first.interactions[0])
+  }
+
+  void "tapes are only cached within the budget"() {
+    given:
+    def smallLoader = new YamlTapeLoader(new DefaultTapeRoot(tapeRoot), -1,
+        new TapeCache(file.length() - 1))
+
+    when:
+    def first = smallLoader.loadTape("cached tape")
+    def second = smallLoader.loadTape("cached tape")
+
+    then:
+    !second.interactions[0].is(first.interactions[0])
+  }
+
+  void "tapes are not cached by default"() {
+    given:
+    def configuration = new OkReplayConfig.Builder()
+        .tapeRoot(tapeRoot)
+        .interceptor(new OkReplayInterceptor())
+        .build()
+    def defaultLoader = configuration.tapeFormat.loader(configuration)
+
+    when:
+    def first = defaultLoader.loadTape("cached tape")
+    def second = defaultLoader.loadTape("cached tape")
+
+    then:
+    configuration.tapeCacheSize == 0
+    !second.interactions[0].is(first.interactions[0])
+  }
+}
@@ -0,0 +1,154 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.ArrayBlockingQueue
+
+import static com.google.common.net.HttpHeaders.VIA
+import static java.util.concurrent.TimeUnit.SECONDS
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class TapeScopeSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  @Shared def interceptor = new OkReplayInterceptor()
+  @Shared def configuration = new OkReplayConfig.Builder()
+      .tapeRoot(tapeRoot)
+      .defaultMode(READ_WRITE)
+      .tapeScope(TapeScope.THREAD)
+      .interceptor(interceptor)
+      .build()
+  @Shared def client = new OkHttpClient.Builder()
+      .addInterceptor(interceptor)
+      .build()
+
+  void setupSpec() {
+    endpoint.dispatcher = new Dispatcher() {
+      @Override MockResponse dispatch(okhttp3.mockwebserver.RecordedRequest request) {
+        new MockResponse().setBody(request.path)
+      }
+    }
+    endpoint.start()
+  }
+
+  void "recorders started on different threads use their own tapes"() {
+    given:
+    def tapes = [:].asSynchronized()
+
+    when:
+    ["a", "b"].collect { name ->
+      Thread.start {
+        def recorder = new Recorder(configuration)
+        recorder.start("tape scope spec $name")
+        client.newCall(new Request.Builder().url(endpoint.url("/$name")).build()).execute().close()
+        tapes[name] = recorder.tape
+        recorder.stop()
+      }
+    }*.join()
+
+    then:
+    tapes.every { name, tape ->
+      tape.size() == 1 && tape.interactions[0].request.uri.path == "/$name"
+    }
+  }
+
+  void "requests made on other threads are not intercepted"() {
+    given:
+    def recorder = new Recorder(configuration)
+    recorder.start("tape scope spec")
+    Response response = null
+
+    when:
+    Thread.start {
+      response = client.newCall(new Request.Builder().url(endpoint.url("/")).build()).execute()
+      response.close()
+    }.join()
+
+    then:
+    response.header(VIA) == null
+    recorder.tape.size() == 0
+
+    cleanup:
+    recorder.stop()
+  }
+
+  void "requests tagged with a tape use it on any thread"() {
+    given:
+    def recorder = new Recorder(configuration)
+    recorder.start("tape scope spec")
+    def responses = new ArrayBlockingQueue<Response>(1)
+
+    when:
+    def request = new Request.Builder()
+        .url(endpoint.url("/tagged"))
+        .tag(Tape, recorder.tape)
+        .build()
+    client.newCall(request).enqueue(new Callback() {
+      @Override void onFailure(Call call, IOException e) {
+      }
+
+      @Override void onResponse(Call call, Response response) {
+        response.close()
+        responses.add(response)
+      }
+    })
+    def response = responses.poll(5, SECONDS)
+
+    then:
+    response.header(VIA) == "OkReplay"
+    recorder.tape.size() == 1
+
+    cleanup:
+    recorder.stop()
+  }
+
+  void "requests are no longer intercepted once the recorder is stopped"() {
+    given:
+    def recorder = new Recorder(configuration)
+    recorder.start("tape scope spec")
+    recorder.stop()
+
+    when:
+    def response = client.newCall(new Request.Builder().url(endpoint.url("/")).build()).execute()
+    response.close()
+
+    then:
+    response.header(VIA) == null
+  }
+
+  void "stopping a recorder on another thread leaves the session of that thread running"() {
+    given:
+    def recorder = new Recorder(configuration)
+    recorder.start("tape scope spec stopped elsewhere")
+    def other = new Recorder(configuration)
+    Tape otherTape = null
+
+    when:
+    Thread.start {
+      other.start("tape scope spec stopping thread")
+      recorder.stop()
+      client.newCall(new Request.Builder().url(endpoint.url("/other")).build()).execute().close()
+      otherTape = other.tape
+      other.stop()
+    }.join()
+    def response = client.newCall(new Request.Builder().url(endpoint.url("/")).build()).execute()
+    response.close()
+
+    then:
+    otherTape.size() == 1
+    response.header(VIA) == null
+  }
+}
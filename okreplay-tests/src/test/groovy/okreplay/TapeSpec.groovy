@@ -99,6 +99,25 @@ class TapeSpec extends Specification {
     response.headers().toMultimap() == plainTextResponse.headers().toMultimap()
   }
 
+  void 'can seek and play a stored interaction in one step'() {
+    when: 'the tape is played'
+    def response = tape.seekAndPlay(getRequest)
+
+    then: 'the recorded response is returned'
+    response.code() == plainTextResponse.code()
+    response.bodyAsText() == 'O HAI!'
+  }
+
+  void 'seek and play returns null for a request for a different URI'() {
+    given:
+    def request = new RecordedRequest.Builder()
+        .url('http://qwantz.com/')
+        .build()
+
+    expect:
+    tape.seekAndPlay(request) == null
+  }
+
   void 'can record post requests with a body'() {
     given: 'a request with some content'
     def request = new RecordedRequest.Builder()
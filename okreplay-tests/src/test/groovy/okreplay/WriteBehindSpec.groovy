@@ -0,0 +1,198 @@
+package okreplay
+
+import com.google.common.io.Files
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import spock.lang.AutoCleanup
+import spock.lang.Shared
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import static okreplay.Headers.X_OKREPLAY
+import static okreplay.TapeMode.READ_ONLY
+import static okreplay.TapeMode.READ_WRITE
+
+@Timeout(10)
+class WriteBehindSpec extends Specification {
+  @Shared @AutoCleanup("deleteDir") def tapeRoot = Files.createTempDir()
+  @Shared @AutoCleanup("shutdown") def endpoint = new MockWebServer()
+  def configuration = new OkReplayConfig.Builder()
+      .tapeRoot(tapeRoot)
+      .defaultMode(READ_WRITE)
+      .writeBehind(true)
+      .interceptor(new OkReplayInterceptor())
+      .build()
+  def client = new OkHttpClient.Builder()
+      .addInterceptor(configuration.interceptor())
+      .build()
+  def recorder = new Recorder(configuration)
+
+  void setupSpec() {
+    endpoint.start()
+  }
+
+  void "a tape written in the background is complete when it is loaded again"() {
+    given:
+    recorder.start("write behind spec")
+    endpoint.enqueue(new MockResponse().setBody("OK"))
+    client.newCall(request("/")).execute().body().string()
+
+    when:
+    recorder.stop()
+    recorder.start("write behind spec", READ_ONLY)
+    def response = client.newCall(request("/")).execute()
+
+    then:
+    response.header(X_OKREPLAY) == "PLAY"
+    response.body().string() == "OK"
+
+    cleanup:
+    recorder.stop()
+  }
+
+  void "pending writes can be flushed"() {
+    given:
+    recorder.start("flushed write behind spec")
+    endpoint.enqueue(new MockResponse().setBody("OK"))
+    client.newCall(request("/")).execute().body().string()
+
+    when:
+    recorder.stop()
+    WriteBehind.SHARED.flush()
+
+    then:
+    new File(tapeRoot, "flushed_write_behind_spec.yaml").text.contains("body: OK")
+  }
+
+  void "a failed write is reported even if the tape was written again after it"() {
+    given:
+    def writeBehind = new WriteBehind()
+    def file = new File(tapeRoot, "written_twice.yaml")
+    writeBehind.submit(file, { throw new IllegalStateException("first") } as Runnable)
+    writeBehind.submit(file, { } as Runnable)
+
+    when:
+    writeBehind.await(file)
+
+    then:
+    def e = thrown(IllegalStateException)
+    e.message == "first"
+
+    when:
+    writeBehind.submit(file, { throw new IllegalStateException("second") } as Runnable)
+    writeBehind.submit(file, { throw new IllegalStateException("third") } as Runnable)
+    writeBehind.flush()
+
+    then:
+    e = thrown(IllegalStateException)
+    e.message == "second"
+    e.suppressed*.message == ["third"]
+  }
+
+  void "a tape file is only replaced once the new one is complete"() {
+    given:
+    def root = new DefaultTapeRoot(tapeRoot)
+    def file = new File(tapeRoot, "replaced.yaml")
+    file.text = "old"
+
+    when:
+    def writer = root.writerFor("replaced.yaml")
+    writer.write("new")
+    writer.flush()
+
+    then:
+    file.text == "old"
+
+    when:
+    writer.close()
+
+    then:
+    file.text == "new"
+    tapeRoot.list().findAll { it.startsWith("replaced.yaml") } == ["replaced.yaml"]
+  }
+
+  void "appending to a tape file writes to the end of it"() {
+    given:
+    def root = new DefaultTapeRoot(tapeRoot)
+    def file = new File(tapeRoot, "appended.yaml")
+    file.text = "old"
+
+    when:
+    def stream = root.appendingStreamFor("appended.yaml")
+    stream.write(" new".bytes)
+    stream.close()
+
+    then:
+    file.text == "old new"
+    tapeRoot.list().findAll { it.startsWith("appended.yaml") } == ["appended.yaml"]
+  }
+
+  void "a tape file whose append was cut off is cut back before it is used again"() {
+    given:
+    def file = new File(tapeRoot, "cut_off.yaml")
+    file.text = "old"
+
+    and: "the process dies while appending"
+    def stream = new DefaultTapeRoot(tapeRoot).appendingStreamFor("cut_off.yaml")
+    stream.write(" half".bytes)
+
+    when:
+    def text = new DefaultTapeRoot(tapeRoot).readerFor("cut_off.yaml").withReader { it.text }
+
+    then:
+    text == "old"
+    tapeRoot.list().findAll { it.startsWith("cut_off.yaml") } == ["cut_off.yaml"]
+
+    cleanup:
+    Util.abort(stream)
+  }
+
+  void "an aborted tape file leaves the old one as it was"() {
+    given:
+    def root = new DefaultTapeRoot(tapeRoot)
+    def file = new File(tapeRoot, "aborted.yaml")
+    file.text = "old"
+
+    when:
+    def writer = root.writerFor("aborted.yaml")
+    writer.write("new")
+    Util.abort(writer)
+
+    then:
+    file.text == "old"
+    tapeRoot.list().findAll { it.startsWith("aborted.yaml") } == ["aborted.yaml"]
+
+    when:
+    def stream = root.appendingStreamFor("aborted.yaml")
+    stream.write(" new".bytes)
+    Util.abort(stream)
+    stream.close()
+
+    then:
+    file.text == "old"
+  }
+
+  void "zip archives are flushed on shutdown by the write behind hook"() {
+    given:
+    def root = new ZipTapeRoot(new File(tapeRoot, "write_behind_spec.zip"))
+
+    when:
+    def stream = root.outputStreamFor("tape.yaml")
+    stream.write("tape".bytes)
+    stream.close()
+
+    then:
+    WriteBehind.SHARED.roots.contains(root)
+
+    when:
+    root.close()
+
+    then:
+    !WriteBehind.SHARED.roots.contains(root)
+  }
+
+  private okhttp3.Request request(String path) {
+    new okhttp3.Request.Builder().url(endpoint.url(path)).build()
+  }
+}
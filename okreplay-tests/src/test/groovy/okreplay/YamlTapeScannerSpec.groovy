@@ -0,0 +1,141 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.Shared
+import spock.lang.Specification
+
+import static java.net.HttpURLConnection.HTTP_OK
+
+class YamlTapeScannerSpec extends Specification {
+  @Shared def tapeRoot = new File(YamlTapeScannerSpec.getResource("/okreplay/tapes").toURI())
+  @Shared def loader = new YamlTapeLoader(tapeRoot)
+
+  void "streamed tapes are equal to tapes loaded through the bean graph"() {
+    given:
+    def file = new File(tapeRoot, fileName)
+
+    when:
+    def streamed = YamlTapeScanner.read(file.newReader("UTF-8"), null)
+    def loaded = loader.readFrom(file.newReader("UTF-8"))
+
+    then:
+    streamed.name == loaded.name
+    streamed.size() == loaded.size()
+    [streamed.interactions, loaded.interactions].transpose().every { a, b ->
+      a.recorded == b.recorded &&
+          a.request.method() == b.request.method() &&
+          a.request.uri() == b.request.uri() &&
+          a.request.headers() == b.request.headers() &&
+          a.request.body() == b.request.body() &&
+          a.response.code() == b.response.code() &&
+          a.response.headers() == b.response.headers() &&
+          a.response.body() == b.response.body()
+    }
+
+    where:
+    fileName << ["smoke_spec.yaml", "rest_conversation_tape.yaml", "sequential_tape.yaml"]
+  }
+
+  void "reads binary bodies"() {
+    given:
+    def yaml = """\
+!tape
+name: binary_tape
+interactions:
+- recorded: 2011-08-23T22:41:40.000Z
+  request:
+    method: GET
+    uri: http://icanhascheezburger.com/image.png
+  response:
+    status: 200
+    headers: {Content-Type: image/png}
+    body: !!binary |-
+      AAECAw==
+"""
+
+    when:
+    def tape = YamlTapeScanner.read(new StringReader(yaml), null)
+
+    then:
+    tape.interactions[0].response.code() == HTTP_OK
+    tape.interactions[0].response.body() == [0, 1, 2, 3] as byte[]
+  }
+
+  void "scanning stops when the callback asks to"() {
+    given:
+    def scanned = []
+
+    when:
+    def name = YamlTapeScanner.scan(new File(tapeRoot, "rest_conversation_tape.yaml").newReader("UTF-8"),
+        new YamlTapeScanner.Callback() {
+          @Override boolean onInteraction(YamlRecordedInteraction interaction) {
+            scanned << interaction.request().uri()
+            scanned.size() < 2
+          }
+        })
+
+    then:
+    name == "rest conversation tape"
+    scanned.size() == 2
+  }
+
+  void "tapes sharing headers through anchors are loaded through the bean graph"() {
+    given:
+    def root = Files.createTempDir()
+    def yaml = """\
+!tape
+name: anchored tape
+interactions:
+- recorded: 2011-08-23T22:41:40.000Z
+  request:
+    method: GET
+    uri: http://freeside.co/1
+    headers: &headers
+      Accept: text/plain
+      User-Agent: okreplay
+  response:
+    status: 200
+    body: '1'
+- recorded: 2011-08-23T22:41:41.000Z
+  request:
+    method: GET
+    uri: http://freeside.co/2
+    headers:
+      <<: *headers
+      Accept: application/json
+  response:
+    status: 200
+    body: '2'
+"""
+    new File(root, "anchored_tape.yaml").text = yaml
+
+    when:
+    YamlTapeScanner.read(new StringReader(yaml), null)
+
+    then:
+    thrown YamlTapeScanner.UnsupportedTapeException
+
+    when:
+    def tape = new YamlTapeLoader(root).loadTape("anchored tape")
+
+    then:
+    tape.name == "anchored tape"
+    tape.interactions[0].request.headers() == [Accept: "text/plain", "User-Agent": "okreplay"]
+    tape.interactions[1].request.headers() == [Accept: "application/json", "User-Agent": "okreplay"]
+
+    cleanup:
+    root.deleteDir()
+  }
+
+  void "barfs on yaml data which is not a tape"() {
+    when:
+    YamlTapeScanner.read(new StringReader(yaml), null)
+
+    then:
+    thrown TapeLoadException
+
+    where:
+    yaml << ["{}][: THIS IS NOT YAML", "this is valid yaml",
+             "!tape\ninteractions:\n- recorded: THIS IS NOT A DATE!\n"]
+  }
+}
@@ -0,0 +1,129 @@
+package okreplay
+
+import com.google.common.io.Files
+import spock.lang.Specification
+
+import java.util.zip.ZipFile
+
+import static okreplay.Fixtures.request
+import static okreplay.Fixtures.response
+import static okreplay.TapeMode.READ_WRITE
+
+class ZipTapeRootSpec extends Specification {
+  File root = Files.createTempDir()
+  File archive = new File(root, "tapes.zip")
+
+  void cleanup() {
+    root.deleteDir()
+  }
+
+  void "written tapes are kept in memory until the archive is flushed"() {
+    given:
+    def tapeRoot = new ZipTapeRoot(archive)
+    def loader = new YamlTapeLoader(tapeRoot)
+    def tape = loader.loadTape("zip tape spec")
+    tape.mode = READ_WRITE
+    tape.record(request("http://freeside.co/1"), response("1"))
+
+    when:
+    loader.writeTape(tape)
+
+    then:
+    !archive.exists()
+    tapeRoot.tapeExists("zip_tape_spec.yaml")
+    loader.loadTape("zip tape spec").size() == 1
+
+    when:
+    tapeRoot.close()
+
+    then:
+    entryNames(archive) == ["zip_tape_spec.yaml"]
+  }
+
+  void "tapes are read from an existing archive"() {
+    given:
+    def tapeRoot = new ZipTapeRoot(archive)
+    def loader = new YamlTapeLoader(tapeRoot)
+    (1..2).each { i ->
+      def tape = loader.loadTape("zip tape $i")
+      tape.mode = READ_WRITE
+      tape.record(request("http://freeside.co/$i"), response("$i"))
+      loader.writeTape(tape)
+    }
+    tapeRoot.close()
+
+    when:
+    def reopened = new YamlTapeLoader(new ZipTapeRoot(archive))
+    def tape = reopened.loadTape("zip tape 2")
+
+    then:
+    tape.size() == 1
+    tape.seekAndPlay(request("http://freeside.co/2")).bodyAsText() == "2"
+    !new ZipTapeRoot(archive).tapeExists("zip_tape_3.yaml")
+  }
+
+  void "flushing keeps the tapes that were not written again"() {
+    given:
+    def tapeRoot = new ZipTapeRoot(archive)
+    tapeRoot.writerFor("a.yaml").withWriter { it.write("a") }
+    tapeRoot.writerFor("b.yaml").withWriter { it.write("b") }
+    tapeRoot.flush()
+
+    when:
+    tapeRoot.writerFor("b.yaml").withWriter { it.write("c") }
+    tapeRoot.close()
+    def reopened = new ZipTapeRoot(archive)
+
+    then:
+    reopened.readerFor("a.yaml").text == "a"
+    reopened.readerFor("b.yaml").text == "c"
+  }
+
+  void "tapes written after the archive was closed are flushed with the others"() {
+    given:
+    def tapeRoot = new ZipTapeRoot(archive)
+    tapeRoot.writerFor("a.yaml").withWriter { it.write("a") }
+    tapeRoot.close()
+
+    when:
+    tapeRoot.writerFor("b.yaml").withWriter { it.write("b") }
+    tapeRoot.flush()
+    def reopened = new ZipTapeRoot(archive)
+
+    then:
+    reopened.readerFor("a.yaml").text == "a"
+    reopened.readerFor("b.yaml").text == "b"
+
+    cleanup:
+    reopened?.close()
+  }
+
+  void "a failed flush leaves the archive as it was and no temporary file behind"() {
+    given:
+    def tapeRoot = new ZipTapeRoot(archive)
+    tapeRoot.writerFor("a.yaml").withWriter { it.write("a") }
+    tapeRoot.flush()
+    def written = archive.bytes
+
+    and: "the archive is overwritten in place, so copying its tapes fails"
+    archive.bytes = new byte[written.length]
+    tapeRoot.writerFor("b.yaml").withWriter { it.write("b") }
+
+    when:
+    tapeRoot.flush()
+
+    then:
+    thrown RuntimeException
+    archive.bytes == new byte[written.length]
+    root.list() as List == ["tapes.zip"]
+  }
+
+  private static List<String> entryNames(File archive) {
+    def zipFile = new ZipFile(archive)
+    try {
+      zipFile.entries().collect { it.name }
+    } finally {
+      zipFile.close()
+    }
+  }
+}